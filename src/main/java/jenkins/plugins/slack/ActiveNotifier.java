@@ -1,6 +1,5 @@
 package jenkins.plugins.slack;
 
-import hudson.EnvVars;
 import hudson.Util;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
@@ -10,31 +9,15 @@ import hudson.model.CauseAction;
 import hudson.model.Hudson;
 import hudson.model.Result;
 import hudson.model.Run;
-import hudson.scm.ChangeLogSet;
-import hudson.scm.ChangeLogSet.AffectedFile;
-import hudson.scm.ChangeLogSet.Entry;
-import hudson.tasks.junit.TestResultAction;
 import hudson.tasks.test.AbstractTestResultAction;
 import hudson.tasks.test.TestResult;
 import hudson.triggers.SCMTrigger;
-import hudson.util.LogTaskListener;
-import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
 import org.jenkinsci.plugins.displayurlapi.DisplayURLProvider;
 
-import java.io.IOException;
-import java.text.MessageFormat;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import static java.util.logging.Level.INFO;
-import static java.util.logging.Level.SEVERE;
 
 @SuppressWarnings("rawtypes")
 public class ActiveNotifier implements FineGrainedNotifier {
@@ -43,6 +26,7 @@ public class ActiveNotifier implements FineGrainedNotifier {
 
     SlackNotifier notifier;
     BuildListener listener;
+    private NotificationContext context;
 
     public ActiveNotifier(SlackNotifier notifier, BuildListener listener) {
         super();
@@ -50,8 +34,111 @@ public class ActiveNotifier implements FineGrainedNotifier {
         this.listener = listener;
     }
 
+    /**
+     * @return the context shared by all messages about the build this notifier was created for, or a fresh one for
+     * other builds such as the upstream build whose commits are listed
+     */
+    private NotificationContext context(AbstractBuild r) {
+        if (context == null) {
+            context = new NotificationContext(notifier, r, listener);
+        }
+        return context.getBuild() == r ? context : new NotificationContext(notifier, r, listener);
+    }
+
     private SlackService getSlack(AbstractBuild r) {
-        return notifier.newSlackService(r, listener);
+        return context(r).getSlack();
+    }
+
+    /**
+     * Hands rendered messages to the {@link SlackNotificationQueue} so the build does not wait on Slack.
+     * Messages passed together are delivered in order. In digest mode they are buffered by {@link SlackDigest}.
+     */
+    private void publish(AbstractBuild r, String color, String... messages) {
+        SlackService slack = getSlack(r);
+        if (notifier.getDigestWindowSeconds() > 0 && addToDigest(slack, color, SlackPayload.forMessages(color, messages))) {
+            return;
+        }
+        SlackNotificationQueue.get().submit(new SlackDelivery(slack, color, messages));
+    }
+
+    private void publish(AbstractBuild r, String color, SlackPayload attachments) {
+        SlackService slack = getSlack(r);
+        if (notifier.getDigestWindowSeconds() > 0 && addToDigest(slack, color, attachments)) {
+            return;
+        }
+        SlackNotificationQueue.get().submit(new SlackDelivery(slack, color, attachments));
+    }
+
+    private boolean addToDigest(SlackService slack, String color, SlackPayload attachments) {
+        return SlackDigest.add(slack, color, attachments, notifier.getDigestWindowSeconds(), notifier.getDigestMaxMessages());
+    }
+
+    /**
+     * Publishes the build status, followed by the commit list if the job shows commit information. With
+     * {@link SlackNotifier#getCombineMessages()} both go out as attachments of a single post. Bot users may instead
+     * replace the start notification and move bulky details into a thread.
+     */
+    private void publishResult(AbstractBuild r) {
+        String color = getBuildColor(r);
+        SlackStartMessageAction startMessage = notifier.getUpdateStartMessage()
+                ? r.getAction(SlackStartMessageAction.class) : null;
+        if (startMessage != null && !startMessage.markResultPublished()) {
+            // the result replaced the start message already, a second update would only overwrite it
+            return;
+        }
+        if (startMessage != null || notifier.getThreadDetails()) {
+            StandardSlackService slack = getWebApiSlack(r);
+            if (slack != null) {
+                publishResult(r, slack, color, startMessage);
+                return;
+            }
+        }
+        String status = getBuildStatusMessage(r, notifier.includeTestSummary(),
+                notifier.includeFailedTests(), notifier.includeCustomMessage());
+        if (!notifier.getCommitInfoChoice().showAnything()) {
+            publish(r, color, status);
+        } else if (notifier.getCombineMessages()) {
+            publish(r, color, SlackPayload.forMessages(color, status, getCommitList(r)));
+        } else {
+            publish(r, color, status, getCommitList(r));
+        }
+    }
+
+    private void publishResult(AbstractBuild r, StandardSlackService slack, String color, SlackStartMessageAction startMessage) {
+        SlackPayload attachments;
+        SlackPayload replies = null;
+        if (notifier.getThreadDetails()) {
+            attachments = SlackPayload.forMessage(getBuildStatusMessage(r, notifier.includeTestSummary(), false, false), color);
+            List<String> details = getThreadDetails(r);
+            if (!details.isEmpty()) {
+                replies = SlackPayload.forMessages(color, details.toArray(new String[details.size()]));
+            }
+        } else {
+            String status = getBuildStatusMessage(r, notifier.includeTestSummary(),
+                    notifier.includeFailedTests(), notifier.includeCustomMessage());
+            attachments = notifier.getCommitInfoChoice().showAnything()
+                    ? SlackPayload.forMessages(color, status, getCommitList(r))
+                    : SlackPayload.forMessage(status, color);
+        }
+        SlackNotificationQueue.get().submit(new SlackDelivery(slack, color, attachments, replies, startMessage, startMessage != null));
+    }
+
+    /**
+     * Renders the sections that go into the thread of a result message, skipping those with nothing to show.
+     */
+    private List<String> getThreadDetails(AbstractBuild r) {
+        List<String> details = new ArrayList<String>(3);
+        AbstractTestResultAction<?> tests = r.getAction(AbstractTestResultAction.class);
+        if (notifier.includeFailedTests() && tests != null && tests.getFailCount() > 0) {
+            details.add(new MessageBuilder(notifier, context(r)).appendFailedTests().toString());
+        }
+        if (notifier.getCommitInfoChoice().showAnything()) {
+            details.add(getCommitList(r));
+        }
+        if (notifier.includeCustomMessage() && StringUtils.isNotBlank(notifier.getCustomMessage())) {
+            details.add(new MessageBuilder(notifier, context(r)).appendCustomMessage().toString());
+        }
+        return details;
     }
 
     public void deleted(AbstractBuild r) {
@@ -66,7 +153,7 @@ public class ActiveNotifier implements FineGrainedNotifier {
         if (causeAction != null) {
             Cause scmCause = causeAction.findCause(SCMTrigger.SCMTriggerCause.class);
             if (scmCause == null) {
-                MessageBuilder message = new MessageBuilder(notifier, build);
+                MessageBuilder message = new MessageBuilder(notifier, context(build));
                 message.append(causeAction.getShortDescription());
                 message.appendOpenLink();
                 if (notifier.includeCustomMessage()) {
@@ -89,38 +176,54 @@ public class ActiveNotifier implements FineGrainedNotifier {
     private void notifyStart(AbstractBuild build, String message) {
         AbstractProject<?, ?> project = build.getProject();
         AbstractBuild<?, ?> previousBuild = project.getLastBuild().getPreviousCompletedBuild();
-        if (previousBuild == null) {
-            getSlack(build).publish(message, "good");
-        } else {
-            getSlack(build).publish(message, getBuildColor(previousBuild));
+        String color = previousBuild == null ? "good" : getBuildColor(previousBuild);
+        if (notifier.getUpdateStartMessage()) {
+            StandardSlackService slack = getWebApiSlack(build);
+            if (slack != null) {
+                // remember where the message went so the result can replace it
+                SlackStartMessageAction startMessage = new SlackStartMessageAction();
+                build.addAction(startMessage);
+                SlackNotificationQueue.get().submit(new SlackDelivery(slack, color, SlackPayload.forMessage(message, color),
+                        null, startMessage, false));
+                return;
+            }
+        }
+        publish(build, color, message);
+    }
+
+    /**
+     * @return the build's Slack service if it posts through the Web API and can therefore update messages,
+     * otherwise {@code null}
+     */
+    private StandardSlackService getWebApiSlack(AbstractBuild r) {
+        SlackService slack = getSlack(r);
+        if (slack instanceof StandardSlackService && ((StandardSlackService) slack).usesWebApi()) {
+            return (StandardSlackService) slack;
         }
+        return null;
     }
 
     public void finalized(AbstractBuild r) {
-        AbstractProject<?, ?> project = r.getProject();
+        if (!notifier.getNotifyRegression()) {
+            return;
+        }
         Result result = r.getResult();
-        AbstractBuild<?, ?> previousBuild = project.getLastBuild();
-        do {
-            previousBuild = previousBuild.getPreviousCompletedBuild();
-        } while (previousBuild != null && previousBuild.getResult() == Result.ABORTED);
-        Result previousResult = (previousBuild != null) ? previousBuild.getResult() : Result.SUCCESS;
-        if((result.isWorseThan(previousResult) || moreTestFailuresThanPreviousBuild(r, previousBuild)) && notifier.getNotifyRegression()) {
-            getSlack(r).publish(getBuildStatusMessage(r, notifier.includeTestSummary(),
-                    notifier.includeFailedTests(), notifier.includeCustomMessage()), getBuildColor(r));
-            if (notifier.getCommitInfoChoice().showAnything()) {
-                getSlack(r).publish(getCommitList(r), getBuildColor(r));
-            }
+        Result previousResult = SlackResultIndex.getPreviousResult(r);
+        if (previousResult == null) {
+            previousResult = Result.SUCCESS;
+        }
+        // only load the previous build when its test results are needed
+        if (result.isWorseThan(previousResult) || moreTestFailuresThanPreviousBuild(r, SlackResultIndex.getPreviousBuild(r))) {
+            publishResult(r);
         }
     }
 
     public void completed(AbstractBuild r) {
-        AbstractProject<?, ?> project = r.getProject();
         Result result = r.getResult();
-        AbstractBuild<?, ?> previousBuild = project.getLastBuild();
-        do {
-            previousBuild = previousBuild.getPreviousCompletedBuild();
-        } while (previousBuild != null && previousBuild.getResult() == Result.ABORTED);
-        Result previousResult = (previousBuild != null) ? previousBuild.getResult() : Result.SUCCESS;
+        Result previousResult = SlackResultIndex.getPreviousResult(r);
+        if (previousResult == null) {
+            previousResult = Result.SUCCESS;
+        }
         if ((result == Result.ABORTED && notifier.getNotifyAborted())
                 || (result == Result.FAILURE //notify only on single failed build
                     && previousResult != Result.FAILURE
@@ -134,37 +237,17 @@ public class ActiveNotifier implements FineGrainedNotifier {
                     && notifier.getNotifyBackToNormal())
                 || (result == Result.SUCCESS && notifier.getNotifySuccess())
                 || (result == Result.UNSTABLE && notifier.getNotifyUnstable())) {
-            getSlack(r).publish(getBuildStatusMessage(r, notifier.includeTestSummary(),
-                    notifier.includeFailedTests(), notifier.includeCustomMessage()), getBuildColor(r));
-            if (notifier.getCommitInfoChoice().showAnything()) {
-                getSlack(r).publish(getCommitList(r), getBuildColor(r));
-            }
+            publishResult(r);
         }
     }
 
     private boolean moreTestFailuresThanPreviousBuild(AbstractBuild currentBuild, AbstractBuild<?, ?> previousBuild) {
-        if (getTestResult(currentBuild) != null && getTestResult(previousBuild) != null) {
-            if (getTestResult(currentBuild).getFailCount() > getTestResult(previousBuild).getFailCount())
-                return true;
-
-            // test if different tests failed.
-            return !getFailedTestIds(currentBuild).equals(getFailedTestIds(previousBuild));
-        }
-        return false;
-    }
-
-    private TestResultAction getTestResult(AbstractBuild build) {
-        return build.getAction(TestResultAction.class);
-    }
-
-    private Set<String> getFailedTestIds(AbstractBuild currentBuild) {
-        Set<String> failedTestIds = new HashSet<String>();
-        List<? extends TestResult> failedTests = getTestResult(currentBuild).getFailedTests();
-        for(TestResult result : failedTests) {
-            failedTestIds.add(result.getId());
+        if (previousBuild == null) {
+            return false;
         }
-
-        return failedTestIds;
+        SlackTestFingerprintAction current = SlackTestFingerprintAction.of(currentBuild);
+        SlackTestFingerprintAction previous = current != null ? SlackTestFingerprintAction.of(previousBuild) : null;
+        return previous != null && current.isRegressionFrom(previous);
     }
 
     String getChanges(AbstractBuild r, boolean includeCustomMessage) {
@@ -172,30 +255,16 @@ public class ActiveNotifier implements FineGrainedNotifier {
             logger.info("No change set computed...");
             return null;
         }
-        ChangeLogSet changeSet = r.getChangeSet();
-        List<Entry> entries = new LinkedList<Entry>();
-        Set<AffectedFile> files = new HashSet<AffectedFile>();
-        for (Object o : changeSet.getItems()) {
-            Entry entry = (Entry) o;
-            logger.info("Entry " + o);
-            entries.add(entry);
-            if (CollectionUtils.isNotEmpty(entry.getAffectedFiles())) {
-                files.addAll(entry.getAffectedFiles());
-            }
-        }
-        if (entries.isEmpty()) {
+        ChangeLogSummary changes = ChangeLogSummary.of(r.getChangeSet());
+        if (changes.isEmpty()) {
             logger.info("Empty change...");
             return null;
         }
-        Set<String> authors = new HashSet<String>();
-        for (Entry entry : entries) {
-            authors.add(entry.getAuthor().getDisplayName());
-        }
-        MessageBuilder message = new MessageBuilder(notifier, r);
+        MessageBuilder message = new MessageBuilder(notifier, context(r));
         message.append("Started by changes from ");
-        message.append(StringUtils.join(authors, ", "));
+        message.append(changes.getAuthors());
         message.append(" (");
-        message.append(files.size());
+        message.append(changes.getFileCount());
         message.append(" file(s) changed)");
         message.appendOpenLink();
         if (includeCustomMessage) {
@@ -205,43 +274,42 @@ public class ActiveNotifier implements FineGrainedNotifier {
     }
 
     String getCommitList(AbstractBuild r) {
-        ChangeLogSet changeSet = r.getChangeSet();
-        List<Entry> entries = new LinkedList<Entry>();
-        for (Object o : changeSet.getItems()) {
-            Entry entry = (Entry) o;
-            logger.info("Entry " + o);
-            entries.add(entry);
-        }
-        if (entries.isEmpty()) {
+        ChangeLogSummary changes = ChangeLogSummary.of(r.getChangeSet(), notifier.getCommitInfoChoice());
+        if (changes.isEmpty()) {
             logger.info("Empty change...");
             Cause.UpstreamCause c = (Cause.UpstreamCause)r.getCause(Cause.UpstreamCause.class);
             if (c == null) {
                 return "No Changes.";
             }
-            String upProjectName = c.getUpstreamProject();
-            int buildNumber = c.getUpstreamBuild();
-            AbstractProject project = Hudson.getInstance().getItemByFullName(upProjectName, AbstractProject.class);
-            AbstractBuild upBuild = (AbstractBuild)project.getBuildByNumber(buildNumber);
-            return getCommitList(upBuild);
-        }
-        Set<String> commits = new HashSet<String>();
-        for (Entry entry : entries) {
-            StringBuffer commit = new StringBuffer();
-            CommitInfoChoice commitInfoChoice = notifier.getCommitInfoChoice();
-            if (commitInfoChoice.showTitle()) {
-                commit.append(entry.getMsg());
-            }
-            if (commitInfoChoice.showAuthor()) {
-                commit.append(" [").append(entry.getAuthor().getDisplayName()).append("]");
-            }
-            commits.add(commit.toString());
+            return getUpstreamCommitList(c);
         }
-        MessageBuilder message = new MessageBuilder(notifier, r);
+        MessageBuilder message = new MessageBuilder(notifier, context(r));
         message.append("Changes:\n- ");
-        message.append(StringUtils.join(commits, "\n- "));
+        message.append(changes.getCommits());
         return message.toString();
     }
 
+    /**
+     * Lists the commits of the upstream build, rendering each upstream build's list only once for all of its
+     * downstream builds.
+     */
+    private String getUpstreamCommitList(Cause.UpstreamCause cause) {
+        String upProjectName = cause.getUpstreamProject();
+        int buildNumber = cause.getUpstreamBuild();
+        CommitInfoChoice commitInfo = notifier.getCommitInfoChoice();
+        String commits = SlackCommitListCache.get(upProjectName, buildNumber, commitInfo);
+        if (commits == null) {
+            AbstractProject project = Hudson.getInstance().getItemByFullName(upProjectName, AbstractProject.class);
+            AbstractBuild upBuild = project != null ? (AbstractBuild)project.getBuildByNumber(buildNumber) : null;
+            if (upBuild == null) {
+                return "No Changes.";
+            }
+            commits = getCommitList(upBuild);
+            SlackCommitListCache.put(upProjectName, buildNumber, commitInfo, commits);
+        }
+        return commits;
+    }
+
     static String getBuildColor(AbstractBuild r) {
         Result result = r.getResult();
         if (result == Result.SUCCESS) {
@@ -254,7 +322,7 @@ public class ActiveNotifier implements FineGrainedNotifier {
     }
 
     String getBuildStatusMessage(AbstractBuild r, boolean includeTestSummary, boolean includeFailedTests, boolean includeCustomMessage) {
-        MessageBuilder message = new MessageBuilder(notifier, r);
+        MessageBuilder message = new MessageBuilder(notifier, context(r));
         message.appendStatusMessage();
         message.appendDuration();
         message.appendOpenLink();
@@ -272,8 +340,7 @@ public class ActiveNotifier implements FineGrainedNotifier {
 
     public static class MessageBuilder {
 
-        private static final Pattern aTag = Pattern.compile("(?i)<a([^>]+)>(.+?)</a>");
-        private static final Pattern href = Pattern.compile("\\s*(?i)href\\s*=\\s*(\"([^\"]*\")|'[^']*'|([^'\">\\s]+))");
+        private static final String CLOSING_TAG = "</a>";
         private static final String STARTING_STATUS_MESSAGE = "Starting...",
                                     BACK_TO_NORMAL_STATUS_MESSAGE = "Back to normal",
                                     STILL_FAILING_STATUS_MESSAGE = "Still Failing",
@@ -285,19 +352,25 @@ public class ActiveNotifier implements FineGrainedNotifier {
                                     REGRESSION_STATUS_MESSAGE = "Regression",
                                     UNKNOWN_STATUS_MESSAGE = "Unknown";
         
-        private StringBuffer message;
+        private StringBuilder message;
         private SlackNotifier notifier;
         private AbstractBuild build;
+        private NotificationContext context;
 
         public MessageBuilder(SlackNotifier notifier, AbstractBuild build) {
+            this(notifier, new NotificationContext(notifier, build, null));
+        }
+
+        MessageBuilder(SlackNotifier notifier, NotificationContext context) {
             this.notifier = notifier;
-            this.message = new StringBuffer();
-            this.build = build;
+            this.message = new StringBuilder();
+            this.build = context.getBuild();
+            this.context = context;
             startMessage();
         }
 
         public MessageBuilder appendStatusMessage() {
-            message.append(this.escape(getStatusMessage(build)));
+            appendEscaped(message, getStatusMessage(build));
             return this;
         }
 
@@ -306,31 +379,20 @@ public class ActiveNotifier implements FineGrainedNotifier {
                 return STARTING_STATUS_MESSAGE;
             }
             Result result = r.getResult();
-            Result previousResult;
-            Run previousBuild = r.getProject().getLastBuild().getPreviousBuild();
             Run previousSuccessfulBuild = r.getPreviousSuccessfulBuild();
             boolean buildHasSucceededBefore = previousSuccessfulBuild != null;
             
             /*
-             * If the last build was aborted, go back to find the last non-aborted build.
-             * This is so that aborted builds do not affect build transitions.
+             * Aborted builds are skipped so that they do not affect build transitions.
              * I.e. if build 1 was failure, build 2 was aborted and build 3 was a success the transition
              * should be failure -> success (and therefore back to normal) not aborted -> success. 
              */
-            Run lastNonAbortedBuild = previousBuild;
-            while(lastNonAbortedBuild != null && lastNonAbortedBuild.getResult() == Result.ABORTED) {
-                lastNonAbortedBuild = lastNonAbortedBuild.getPreviousBuild();
-            }
-            
+            Result lastNonAbortedResult = SlackResultIndex.getPreviousResult(r);
             
             /* If all previous builds have been aborted, then use 
              * SUCCESS as a default status so an aborted message is sent
              */
-            if(lastNonAbortedBuild == null) {
-                previousResult = Result.SUCCESS;
-            } else {
-                previousResult = lastNonAbortedBuild.getResult();
-            }
+            Result previousResult = lastNonAbortedResult != null ? lastNonAbortedResult : Result.SUCCESS;
             
             /* Back to normal should only be shown if the build has actually succeeded at some point.
              * Also, if a build was previously unstable and has now succeeded the status should be 
@@ -359,26 +421,26 @@ public class ActiveNotifier implements FineGrainedNotifier {
             if (result == Result.UNSTABLE) {
                 return UNSTABLE_STATUS_MESSAGE;
             }
-            if (lastNonAbortedBuild != null && result.isWorseThan(previousResult)) {
+            if (lastNonAbortedResult != null && result.isWorseThan(previousResult)) {
                 return REGRESSION_STATUS_MESSAGE;
             }
             return UNKNOWN_STATUS_MESSAGE;
         }
 
         public MessageBuilder append(String string) {
-            message.append(this.escape(string));
+            appendEscaped(message, string);
             return this;
         }
 
         public MessageBuilder append(Object string) {
-            message.append(this.escape(string.toString()));
+            appendEscaped(message, string.toString());
             return this;
         }
 
         private MessageBuilder startMessage() {
-            message.append(this.escape(build.getProject().getFullDisplayName()));
+            appendEscaped(message, build.getProject().getFullDisplayName());
             message.append(" - ");
-            message.append(this.escape(build.getDisplayName()));
+            appendEscaped(message, build.getDisplayName());
             message.append(" ");
             return this;
         }
@@ -392,7 +454,7 @@ public class ActiveNotifier implements FineGrainedNotifier {
         public MessageBuilder appendDuration() {
             message.append(" after ");
             String durationString;
-            if(message.toString().contains(BACK_TO_NORMAL_STATUS_MESSAGE)){
+            if(message.indexOf(BACK_TO_NORMAL_STATUS_MESSAGE) >= 0){
                 durationString = createBackToNormalDurationString();
             } else {
                 durationString = build.getDurationString();
@@ -434,16 +496,8 @@ public class ActiveNotifier implements FineGrainedNotifier {
 
         public MessageBuilder appendCustomMessage() {
             String customMessage = notifier.getCustomMessage();
-            EnvVars envVars = new EnvVars();
-            try {
-                envVars = build.getEnvironment(new LogTaskListener(logger, INFO));
-            } catch (IOException e) {
-                logger.log(SEVERE, e.getMessage(), e);
-            } catch (InterruptedException e) {
-                logger.log(SEVERE, e.getMessage(), e);
-            }
             message.append("\n");
-            message.append(envVars.expand(customMessage));
+            message.append(context.getEnvironment().expand(customMessage));
             return this;
         }
         
@@ -462,32 +516,145 @@ public class ActiveNotifier implements FineGrainedNotifier {
             return Util.getTimeSpanString(backToNormalDuration);
         }
 
-        private String escapeCharacters(String string) {
-            string = string.replace("&", "&amp;");
-            string = string.replace("<", "&lt;");
-            string = string.replace(">", "&gt;");
+        public String escape(String string) {
+            StringBuilder escaped = new StringBuilder(string.length() + 16);
+            appendEscaped(escaped, string);
+            return escaped.toString();
+        }
+
+        /**
+         * Escapes {@code &}, {@code <} and {@code >} for Slack and turns {@code <a href="url">text</a>} into Slack's
+         * {@code <url|text>} link syntax, in one pass straight into {@code out}. Anything else, braces and
+         * apostrophes included, is copied as is.
+         */
+        static void appendEscaped(StringBuilder out, String string) {
+            int length = string.length();
+            int i = 0;
+            while (i < length) {
+                if (string.charAt(i) == '<') {
+                    int end = appendAnchor(out, string, i);
+                    if (end > i) {
+                        i = end;
+                        continue;
+                    }
+                }
+                appendEscaped(out, string.charAt(i++));
+            }
+        }
 
-            return string;
+        /**
+         * Appends the anchor tag starting at {@code start}, as a link if it has an {@code href} and escaped otherwise.
+         *
+         * @return the index after the closing tag, or {@code -1} if there is no anchor tag at {@code start}
+         */
+        private static int appendAnchor(StringBuilder out, String string, int start) {
+            if (start + 2 >= string.length() || Character.toLowerCase(string.charAt(start + 1)) != 'a') {
+                return -1;
+            }
+            int attributesEnd = string.indexOf('>', start + 2);
+            if (attributesEnd <= start + 2) {
+                return -1;
+            }
+            int textStart = attributesEnd + 1;
+            int textEnd = indexOfClosingTag(string, textStart);
+            if (textEnd < 0) {
+                return -1;
+            }
+            int end = textEnd + CLOSING_TAG.length();
+            int mark = out.length();
+            out.append('<');
+            if (appendHref(out, string, start + 2, attributesEnd)) {
+                out.append('|').append(string, textStart, textEnd).append('>');
+            } else {
+                out.setLength(mark);
+                for (int i = start; i < end; i++) {
+                    appendEscaped(out, string.charAt(i));
+                }
+            }
+            return end;
         }
 
-        private String[] extractReplaceLinks(Matcher aTag, StringBuffer sb) {
-            int size = 0;
-            List<String> links = new ArrayList<String>();
-            while (aTag.find()) {
-                Matcher url = href.matcher(aTag.group(1));
-                if (url.find()) {
-                    aTag.appendReplacement(sb,String.format("{%s}", size++));
-                    links.add(String.format("<%s|%s>", url.group(1).replaceAll("\"", ""), aTag.group(2)));
+        /**
+         * @return the index of the first {@code </a>} closing a non-empty, single line link text, or {@code -1}
+         */
+        private static int indexOfClosingTag(String string, int textStart) {
+            for (int i = textStart; i < string.length(); i++) {
+                if (i > textStart && string.regionMatches(true, i, CLOSING_TAG, 0, CLOSING_TAG.length())) {
+                    return i;
+                }
+                char c = string.charAt(i);
+                if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                    return -1;
                 }
             }
-            aTag.appendTail(sb);
-            return links.toArray(new String[size]);
+            return -1;
+        }
+
+        /**
+         * Appends the value of the first {@code href} attribute between {@code from} and {@code to}, without quotes.
+         *
+         * @return whether an {@code href} attribute was found
+         */
+        private static boolean appendHref(StringBuilder out, String string, int from, int to) {
+            for (int i = from; i + 4 <= to; i++) {
+                if (!string.regionMatches(true, i, "href", 0, 4)) {
+                    continue;
+                }
+                int value = skipWhitespace(string, i + 4, to);
+                if (value >= to || string.charAt(value) != '=') {
+                    continue;
+                }
+                value = skipWhitespace(string, value + 1, to);
+                if (value >= to) {
+                    continue;
+                }
+                char quote = string.charAt(value);
+                if (quote == '"' || quote == '\'') {
+                    int close = string.indexOf(quote, value + 1);
+                    if (close < 0 || close >= to) {
+                        continue;
+                    }
+                    out.append(string, value + 1, close);
+                    return true;
+                }
+                int valueEnd = value;
+                while (valueEnd < to && !isWhitespace(string.charAt(valueEnd)) && string.charAt(valueEnd) != '"'
+                        && string.charAt(valueEnd) != '\'') {
+                    valueEnd++;
+                }
+                if (valueEnd > value) {
+                    out.append(string, value, valueEnd);
+                    return true;
+                }
+            }
+            return false;
         }
 
-        public String escape(String string) {
-            StringBuffer pattern = new StringBuffer();
-            String[] links = extractReplaceLinks(aTag.matcher(string), pattern);
-            return MessageFormat.format(escapeCharacters(pattern.toString()), links);
+        private static int skipWhitespace(String string, int from, int to) {
+            while (from < to && isWhitespace(string.charAt(from))) {
+                from++;
+            }
+            return from;
+        }
+
+        private static boolean isWhitespace(char c) {
+            return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+        }
+
+        private static void appendEscaped(StringBuilder out, char c) {
+            switch (c) {
+                case '&':
+                    out.append("&amp;");
+                    break;
+                case '<':
+                    out.append("&lt;");
+                    break;
+                case '>':
+                    out.append("&gt;");
+                    break;
+                default:
+                    out.append(c);
+            }
         }
 
         public String toString() {
@@ -0,0 +1,152 @@
+package jenkins.plugins.slack;
+
+import hudson.scm.ChangeLogSet;
+import hudson.scm.ChangeLogSet.AffectedFile;
+import hudson.scm.ChangeLogSet.Entry;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Aggregates a change set in a single pass over its entries, so that a build merging thousands of commits does not
+ * copy every entry and file just to count them. Commit lines and file paths are kept up to the caps below; authors
+ * are all kept, as telling them apart needs every name and there are no more of them than users.
+ * <p>
+ * The caps can be changed with the {@code jenkins.plugins.slack.ChangeLogSummary.maxAuthors},
+ * {@code .maxCommits} and {@code .maxFiles} system properties.
+ */
+@SuppressWarnings("rawtypes")
+final class ChangeLogSummary {
+
+    /** Number of authors named in a start notification. */
+    static final int MAX_AUTHORS = Integer.getInteger(ChangeLogSummary.class.getName() + ".maxAuthors", 10);
+    /** Number of commits listed in a result notification. */
+    static final int MAX_COMMITS = Integer.getInteger(ChangeLogSummary.class.getName() + ".maxCommits", 50);
+    /** Number of distinct changed files counted exactly. */
+    static final int MAX_FILES = Integer.getInteger(ChangeLogSummary.class.getName() + ".maxFiles", 10000);
+
+    private int entries;
+    private final Set<String> authors = new LinkedHashSet<String>();
+    private final Set<String> files = new HashSet<String>();
+    private boolean moreFiles;
+    private final Set<String> commits = new LinkedHashSet<String>();
+    /** Entries after the commit list filled up. Their lines are not kept, so repeated lines are counted each time. */
+    private int unlistedEntries;
+
+    private ChangeLogSummary() {
+    }
+
+    /**
+     * Summarizes the authors and changed files of a change set.
+     */
+    static ChangeLogSummary of(ChangeLogSet changeSet) {
+        return of(changeSet, null, MAX_COMMITS, MAX_FILES);
+    }
+
+    /**
+     * Summarizes a change set, also rendering up to {@link #MAX_COMMITS} commits as {@code commitInfo} describes.
+     */
+    static ChangeLogSummary of(ChangeLogSet changeSet, CommitInfoChoice commitInfo) {
+        return of(changeSet, commitInfo, MAX_COMMITS, MAX_FILES);
+    }
+
+    static ChangeLogSummary of(ChangeLogSet changeSet, CommitInfoChoice commitInfo, int maxCommits, int maxFiles) {
+        ChangeLogSummary summary = new ChangeLogSummary();
+        // iterate the change set itself, getItems() would copy it into an array first
+        Iterator iterator = changeSet.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = (Entry) iterator.next();
+            summary.entries++;
+            String author = entry.getAuthor().getDisplayName();
+            summary.authors.add(author);
+            if (commitInfo != null) {
+                summary.addCommit(entry, author, commitInfo, maxCommits);
+            } else {
+                summary.addFiles(entry.getAffectedFiles(), maxFiles);
+            }
+        }
+        return summary;
+    }
+
+    private void addCommit(Entry entry, String author, CommitInfoChoice commitInfo, int maxCommits) {
+        StringBuilder commit = new StringBuilder();
+        if (commitInfo.showTitle()) {
+            commit.append(entry.getMsg());
+        }
+        if (commitInfo.showAuthor()) {
+            commit.append(" [").append(author).append("]");
+        }
+        String line = commit.toString();
+        if (commits.size() < maxCommits) {
+            commits.add(line);
+        } else {
+            unlistedEntries++;
+        }
+    }
+
+    private void addFiles(Collection<? extends AffectedFile> affectedFiles, int maxFiles) {
+        if (affectedFiles == null) {
+            return;
+        }
+        for (AffectedFile file : affectedFiles) {
+            String path = file.getPath();
+            if (files.size() < maxFiles) {
+                files.add(path);
+            } else if (!files.contains(path)) {
+                moreFiles = true;
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return entries == 0;
+    }
+
+    /**
+     * @return the distinct authors, the first {@link #MAX_AUTHORS} in commit order followed by how many more there are
+     */
+    String getAuthors() {
+        return join(authors, MAX_AUTHORS, ", ", " and ", authors.size() - MAX_AUTHORS);
+    }
+
+    /**
+     * @return the number of distinct changed files, or a lower bound if there are too many to count
+     */
+    String getFileCount() {
+        return moreFiles ? "more than " + format(files.size()) : String.valueOf(files.size());
+    }
+
+    /**
+     * @return the distinct commit lines, one per line, followed by how many change set entries came after the list
+     * was full
+     */
+    String getCommits() {
+        return join(commits, commits.size(), "\n- ", "\n- and ", unlistedEntries);
+    }
+
+    private static String join(Set<String> values, int limit, String separator, String moreSeparator, int more) {
+        StringBuilder joined = new StringBuilder();
+        int i = 0;
+        for (String value : values) {
+            if (i == limit) {
+                break;
+            }
+            if (i++ > 0) {
+                joined.append(separator);
+            }
+            joined.append(value);
+        }
+        if (more > 0) {
+            joined.append(moreSeparator).append(format(more)).append(" more");
+        }
+        return joined.toString();
+    }
+
+    private static String format(int number) {
+        return String.format(Locale.ENGLISH, "%,d", number);
+    }
+}
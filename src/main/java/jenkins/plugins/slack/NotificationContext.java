@@ -0,0 +1,63 @@
+package jenkins.plugins.slack;
+
+import hudson.EnvVars;
+import hudson.model.AbstractBuild;
+import hudson.model.TaskListener;
+import hudson.util.LogTaskListener;
+
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.WARNING;
+
+/**
+ * What every message sent for one build event shares: the build's environment and the Slack service resolved from
+ * the job and global configuration.
+ * <p>
+ * Computing the environment may call out to the build's node and runs every {@code EnvironmentContributor}, so both
+ * are computed on first use and at most once per event.
+ */
+@SuppressWarnings("rawtypes")
+final class NotificationContext {
+
+    private static final Logger logger = Logger.getLogger(NotificationContext.class.getName());
+
+    private final SlackNotifier notifier;
+    private final AbstractBuild build;
+    private final TaskListener listener;
+    private EnvVars environment;
+    private SlackService slack;
+
+    NotificationContext(SlackNotifier notifier, AbstractBuild build, TaskListener listener) {
+        this.notifier = notifier;
+        this.build = build;
+        this.listener = listener;
+    }
+
+    AbstractBuild getBuild() {
+        return build;
+    }
+
+    synchronized EnvVars getEnvironment() {
+        if (environment == null) {
+            try {
+                environment = build.getEnvironment(listener != null ? listener : new LogTaskListener(logger, INFO));
+            } catch (Exception e) {
+                if (listener != null) {
+                    listener.getLogger().println("Error retrieving environment vars: " + e.getMessage());
+                } else {
+                    logger.log(WARNING, "Error retrieving environment vars", e);
+                }
+                environment = new EnvVars();
+            }
+        }
+        return environment;
+    }
+
+    synchronized SlackService getSlack() {
+        if (slack == null) {
+            slack = notifier.newSlackService(getEnvironment());
+        }
+        return slack;
+    }
+}
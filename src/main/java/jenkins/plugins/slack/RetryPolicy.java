@@ -0,0 +1,77 @@
+package jenkins.plugins.slack;
+
+import org.apache.http.HttpStatus;
+
+import java.util.Random;
+
+/**
+ * Decides whether a failed Slack post is retried and how long to wait before the next attempt.
+ * <p>
+ * Delays grow exponentially from {@code baseDelayMillis} up to {@code maxDelayMillis} with random jitter, unless
+ * Slack sent a {@code Retry-After} header, which is honoured as is. The default policy can be tuned with the
+ * {@code jenkins.plugins.slack.RetryPolicy.maxAttempts}, {@code .baseDelayMillis} and {@code .maxDelayMillis}
+ * system properties.
+ */
+public class RetryPolicy {
+
+    /** Status used for posts that failed before an HTTP response was received. */
+    public static final int NO_RESPONSE = -1;
+
+    public static final RetryPolicy DEFAULT = new RetryPolicy(
+            Integer.getInteger(RetryPolicy.class.getName() + ".maxAttempts", 4),
+            Long.getLong(RetryPolicy.class.getName() + ".baseDelayMillis", 1000L),
+            Long.getLong(RetryPolicy.class.getName() + ".maxDelayMillis", 60000L));
+
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final Random random = new Random();
+
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMillis = Math.max(1, baseDelayMillis);
+        this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Rate limiting, server errors and connection failures are transient; anything else (bad token, unknown
+     * channel, ...) will fail again and is not retried.
+     */
+    public boolean isRetryable(int statusCode) {
+        return statusCode == NO_RESPONSE
+                || statusCode == SC_TOO_MANY_REQUESTS
+                || statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR;
+    }
+
+    /**
+     * @return whether another attempt is allowed after {@code attempt} attempts failed with {@code statusCode}
+     */
+    public boolean shouldRetry(int attempt, int statusCode) {
+        return attempt < maxAttempts && isRetryable(statusCode);
+    }
+
+    /**
+     * @param attempt          number of attempts made so far, starting at 1
+     * @param retryAfterMillis delay requested by Slack, or a negative value if none was given
+     */
+    public long delayMillis(int attempt, long retryAfterMillis) {
+        if (retryAfterMillis >= 0) {
+            return retryAfterMillis;
+        }
+        long delay = baseDelayMillis << Math.min(Math.max(attempt - 1, 0), 30);
+        if (delay <= 0 || delay > maxDelayMillis) {
+            delay = maxDelayMillis;
+        }
+        // equal jitter: keep half of the delay, randomise the rest so retries of a burst do not line up
+        long half = delay / 2;
+        synchronized (random) {
+            return half + (long) (random.nextDouble() * (delay - half));
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package jenkins.plugins.slack;
+
+import hudson.Extension;
+import hudson.ProxyConfiguration;
+import hudson.model.PeriodicWork;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.http.HttpHost;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.DefaultProxyRoutePlanner;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Plugin-wide pooled, keep-alive {@link CloseableHttpClient} shared by every {@link StandardSlackService}.
+ * <p>
+ * The client is only rebuilt when {@link Jenkins#proxy} changes. Pool sizes, the idle eviction
+ * timeout and the connect and socket timeouts can be tuned with the
+ * {@code jenkins.plugins.slack.SharedHttpClient.maxTotal}, {@code .maxPerRoute}, {@code .idleTimeoutSeconds},
+ * {@code .connectTimeoutMillis} and {@code .socketTimeoutMillis} system properties.
+ */
+public final class SharedHttpClient {
+
+    private static final Logger logger = Logger.getLogger(SharedHttpClient.class.getName());
+
+    static final int MAX_TOTAL = Integer.getInteger(SharedHttpClient.class.getName() + ".maxTotal", 20);
+    static final int MAX_PER_ROUTE = Integer.getInteger(SharedHttpClient.class.getName() + ".maxPerRoute", 10);
+    static final long IDLE_TIMEOUT_SECONDS = Long.getLong(SharedHttpClient.class.getName() + ".idleTimeoutSeconds", 60L);
+    static final int CONNECT_TIMEOUT_MILLIS = Integer.getInteger(SharedHttpClient.class.getName() + ".connectTimeoutMillis", 10000);
+    static final int SOCKET_TIMEOUT_MILLIS = Integer.getInteger(SharedHttpClient.class.getName() + ".socketTimeoutMillis", 30000);
+
+    /** How long a replaced client is kept open so in-flight posts can complete. */
+    private static final long RETIRE_DELAY_SECONDS = 60;
+
+    private static CloseableHttpClient client;
+    private static PoolingHttpClientConnectionManager connectionManager;
+    private static String proxyKey;
+
+    private SharedHttpClient() {
+    }
+
+    /**
+     * Returns the shared client, building it on first use or when the proxy configuration has changed.
+     */
+    public static synchronized CloseableHttpClient get() {
+        ProxyConfiguration proxy = currentProxy();
+        String key = proxyKey(proxy);
+        if (client == null || !key.equals(proxyKey)) {
+            retire(client);
+            connectionManager = new PoolingHttpClientConnectionManager();
+            connectionManager.setMaxTotal(MAX_TOTAL);
+            connectionManager.setDefaultMaxPerRoute(MAX_PER_ROUTE);
+            client = build(connectionManager, proxy);
+            proxyKey = key;
+        }
+        return client;
+    }
+
+    /**
+     * Closes expired connections and connections idle for longer than the configured timeout.
+     */
+    static synchronized void evictIdleConnections() {
+        if (connectionManager != null) {
+            connectionManager.closeExpiredConnections();
+            connectionManager.closeIdleConnections(IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private static CloseableHttpClient build(PoolingHttpClientConnectionManager connectionManager, ProxyConfiguration proxy) {
+        final HttpClientBuilder clientBuilder = HttpClients.custom();
+        final CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+        clientBuilder.setConnectionManager(connectionManager);
+        clientBuilder.setDefaultCredentialsProvider(credentialsProvider);
+        // without timeouts a hung Slack endpoint would hold a delivery thread forever and never trip its breaker
+        clientBuilder.setDefaultRequestConfig(RequestConfig.custom()
+                .setConnectTimeout(CONNECT_TIMEOUT_MILLIS)
+                .setConnectionRequestTimeout(CONNECT_TIMEOUT_MILLIS)
+                .setSocketTimeout(SOCKET_TIMEOUT_MILLIS)
+                .build());
+
+        if (proxy != null) {
+            final HttpHost proxyHost = new HttpHost(proxy.name, proxy.port);
+            clientBuilder.setRoutePlanner(new DefaultProxyRoutePlanner(proxyHost));
+
+            String username = proxy.getUserName();
+            String password = proxy.getPassword();
+            // Consider it to be passed if username specified. Sufficient?
+            if (username != null && !"".equals(username.trim())) {
+                logger.info("Using proxy authentication (user=" + username + ")");
+                credentialsProvider.setCredentials(new AuthScope(proxyHost),
+                                                   new UsernamePasswordCredentials(username, password));
+            }
+        }
+        return clientBuilder.build();
+    }
+
+    private static void retire(final CloseableHttpClient retired) {
+        if (retired == null) {
+            return;
+        }
+        logger.info("Proxy configuration changed, rebuilding Slack HTTP client");
+        Timer.get().schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    retired.close();
+                } catch (IOException e) {
+                    logger.log(Level.FINE, "Error closing retired Slack HTTP client", e);
+                }
+            }
+        }, RETIRE_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static ProxyConfiguration currentProxy() {
+        Jenkins jenkins = Jenkins.getInstance();
+        return jenkins != null ? jenkins.proxy : null;
+    }
+
+    private static String proxyKey(ProxyConfiguration proxy) {
+        if (proxy == null) {
+            return "";
+        }
+        return proxy.name + ":" + proxy.port + ":" + StringUtils.defaultString(proxy.getUserName())
+                + ":" + StringUtils.defaultString(proxy.getPassword());
+    }
+
+    @Extension
+    public static final class IdleConnectionMonitor extends PeriodicWork {
+
+        @Override
+        public long getRecurrencePeriod() {
+            return TimeUnit.SECONDS.toMillis(Math.max(IDLE_TIMEOUT_SECONDS / 2, 1));
+        }
+
+        @Override
+        protected void doRun() {
+            evictIdleConnections();
+        }
+    }
+}
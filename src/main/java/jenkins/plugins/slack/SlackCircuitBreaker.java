@@ -0,0 +1,151 @@
+package jenkins.plugins.slack;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * Circuit breaker for one Slack endpoint, e.g. an incoming webhook URL or {@code chat.postMessage}.
+ * <p>
+ * After {@code failureThreshold} consecutive failures the breaker opens and posts to the endpoint are short-circuited
+ * into the retry and outbox path instead of waiting on socket timeouts. Once {@code openMillis} have passed a single
+ * probe is let through; its outcome closes or re-opens the breaker. Tunable with the
+ * {@code jenkins.plugins.slack.SlackCircuitBreaker.failureThreshold} and {@code .openMillis} system properties.
+ */
+public class SlackCircuitBreaker {
+
+    private static final Logger logger = Logger.getLogger(SlackCircuitBreaker.class.getName());
+
+    static final int FAILURE_THRESHOLD = Integer.getInteger(SlackCircuitBreaker.class.getName() + ".failureThreshold", 5);
+    static final long OPEN_MILLIS = Long.getLong(SlackCircuitBreaker.class.getName() + ".openMillis", 30000L);
+
+    private static final ConcurrentMap<String, SlackCircuitBreaker> BREAKERS = new ConcurrentHashMap<String, SlackCircuitBreaker>();
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String endpoint;
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probeInFlight;
+
+    SlackCircuitBreaker(String endpoint, int failureThreshold, long openMillis) {
+        this.endpoint = endpoint;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+    }
+
+    public static SlackCircuitBreaker forEndpoint(String endpoint) {
+        SlackCircuitBreaker breaker = BREAKERS.get(endpoint);
+        if (breaker == null) {
+            SlackCircuitBreaker created = new SlackCircuitBreaker(endpoint, FAILURE_THRESHOLD, OPEN_MILLIS);
+            breaker = BREAKERS.putIfAbsent(endpoint, created);
+            if (breaker == null) {
+                breaker = created;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * @return every breaker created so far, sorted by endpoint
+     */
+    public static Collection<SlackCircuitBreaker> all() {
+        Map<String, SlackCircuitBreaker> sorted = new TreeMap<String, SlackCircuitBreaker>(BREAKERS);
+        return sorted.values();
+    }
+
+    static void reset() {
+        BREAKERS.clear();
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * Asks whether a post may go to the endpoint now. When the breaker has been open long enough this admits a single
+     * probe and moves to {@link State#HALF_OPEN}.
+     */
+    public boolean allowRequest() {
+        return allowRequest(System.currentTimeMillis());
+    }
+
+    synchronized boolean allowRequest(long now) {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now - openedAt < openMillis) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probeInFlight = true;
+                logger.info("Probing Slack endpoint " + endpoint);
+                return true;
+            default:
+                if (probeInFlight) {
+                    return false;
+                }
+                probeInFlight = true;
+                return true;
+        }
+    }
+
+    /**
+     * @return how long until the breaker lets a probe through, zero if it is not open
+     */
+    public long millisUntilProbe() {
+        return millisUntilProbe(System.currentTimeMillis());
+    }
+
+    synchronized long millisUntilProbe(long now) {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, openedAt + openMillis - now);
+    }
+
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            logger.info("Slack endpoint " + endpoint + " recovered, closing circuit breaker");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probeInFlight = false;
+    }
+
+    public void recordFailure() {
+        recordFailure(System.currentTimeMillis());
+    }
+
+    synchronized void recordFailure(long now) {
+        consecutiveFailures++;
+        probeInFlight = false;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            if (state == State.CLOSED) {
+                logger.warning("Slack endpoint " + endpoint + " failed " + consecutiveFailures
+                        + " times in a row, opening circuit breaker");
+            }
+            state = State.OPEN;
+            openedAt = now;
+            SlackMetrics.count("circuit.opened");
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package jenkins.plugins.slack;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Commit lists rendered for upstream builds, so that the downstream jobs of a fan-out without changes of their own
+ * resolve and render the upstream chain once rather than once each.
+ * <p>
+ * Keeps the {@code jenkins.plugins.slack.SlackCommitListCache.size} most recently used lists, 256 by default.
+ */
+final class SlackCommitListCache {
+
+    static final int SIZE = Integer.getInteger(SlackCommitListCache.class.getName() + ".size", 256);
+
+    private static final Map<String, String> LISTS = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > SIZE;
+        }
+    };
+
+    private SlackCommitListCache() {
+    }
+
+    /**
+     * @return the commit list rendered for an upstream build, or {@code null} if there is none
+     */
+    static String get(String project, int build, CommitInfoChoice commitInfo) {
+        synchronized (LISTS) {
+            return LISTS.get(key(project, build, commitInfo));
+        }
+    }
+
+    static void put(String project, int build, CommitInfoChoice commitInfo, String commits) {
+        synchronized (LISTS) {
+            LISTS.put(key(project, build, commitInfo), commits);
+        }
+    }
+
+    static void clear() {
+        synchronized (LISTS) {
+            LISTS.clear();
+        }
+    }
+
+    private static String key(String project, int build, CommitInfoChoice commitInfo) {
+        return project + "#" + build + "/" + commitInfo;
+    }
+}
@@ -0,0 +1,82 @@
+package jenkins.plugins.slack;
+
+import com.cloudbees.plugins.credentials.CredentialsMatchers;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.domains.DomainRequirement;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import hudson.security.ACL;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.plaincredentials.StringCredentials;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches {@link StringCredentials} resolved by ID so posting does not scan every credential in the system.
+ * <p>
+ * The cache is cleared whenever the system credential store is saved. Entries also expire after
+ * {@code jenkins.plugins.slack.SlackCredentialCache.ttlSeconds} (300 by default) to pick up changes made through
+ * other credential providers. Unknown IDs are cached too.
+ */
+public final class SlackCredentialCache {
+
+    static final long TTL_MILLIS = TimeUnit.SECONDS.toMillis(
+            Long.getLong(SlackCredentialCache.class.getName() + ".ttlSeconds", 300L));
+
+    private static final ConcurrentMap<String, Entry> CACHE = new ConcurrentHashMap<String, Entry>();
+
+    private SlackCredentialCache() {
+    }
+
+    /**
+     * @return the credentials with the given ID, or {@code null} if there are none
+     */
+    public static StringCredentials lookup(String credentialId) {
+        long now = System.currentTimeMillis();
+        Entry entry = CACHE.get(credentialId);
+        if (entry == null || now - entry.loadedAt > TTL_MILLIS) {
+            SlackMetrics.count("credentials.cache.miss");
+            entry = new Entry(load(credentialId), now);
+            CACHE.put(credentialId, entry);
+        }
+        return entry.credentials;
+    }
+
+    public static void invalidateAll() {
+        CACHE.clear();
+    }
+
+    private static StringCredentials load(String credentialId) {
+        List<StringCredentials> credentials = CredentialsProvider.lookupCredentials(StringCredentials.class,
+                Jenkins.getInstance(), ACL.SYSTEM, Collections.<DomainRequirement>emptyList());
+        return CredentialsMatchers.firstOrNull(credentials, CredentialsMatchers.withId(credentialId));
+    }
+
+    private static final class Entry {
+        private final StringCredentials credentials;
+        private final long loadedAt;
+
+        Entry(StringCredentials credentials, long loadedAt) {
+            this.credentials = credentials;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    @Extension
+    public static final class Invalidator extends SaveableListener {
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof SystemCredentialsProvider) {
+                invalidateAll();
+            }
+        }
+    }
+}
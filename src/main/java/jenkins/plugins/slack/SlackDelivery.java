@@ -0,0 +1,119 @@
+package jenkins.plugins.slack;
+
+import net.sf.json.JSONArray;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A fully rendered notification waiting in the {@link SlackNotificationQueue} to be sent.
+ * <p>
+ * Only plain strings, serialized attachments and the target {@link SlackService} are kept so that deliveries backed
+ * by a {@link StandardSlackService} can be spilled to disk and restored.
+ */
+public class SlackDelivery implements Runnable {
+
+    private static final Logger logger = Logger.getLogger(SlackDelivery.class.getName());
+
+    private final SlackService service;
+    private final String[] messages;
+    private final SlackPayload attachments;
+    private final String color;
+    /** Attachments for a thread reply to the posted message, or {@code null}. */
+    private final SlackPayload replies;
+    /** Start message to record, or to replace if {@link #replaceStart} is set. Not kept when spilled to disk. */
+    private transient SlackStartMessageAction startMessage;
+    private transient boolean replaceStart;
+
+    /**
+     * Creates a delivery for one or more messages that are published in the given order.
+     */
+    public SlackDelivery(SlackService service, String color, String... messages) {
+        this.service = service;
+        this.messages = messages;
+        this.attachments = null;
+        this.color = color;
+        this.replies = null;
+    }
+
+    SlackDelivery(SlackService service, String color, SlackPayload attachments) {
+        this(service, color, attachments, null);
+    }
+
+    /**
+     * Creates a delivery whose replies go into the thread of the posted message.
+     */
+    SlackDelivery(SlackService service, String color, SlackPayload attachments, SlackPayload replies) {
+        this.service = service;
+        this.messages = new String[0];
+        this.attachments = attachments;
+        this.color = color;
+        this.replies = replies;
+    }
+
+    /**
+     * Creates a delivery that either posts a build's start notification and records it in the action, or replaces
+     * the start notification recorded there.
+     */
+    SlackDelivery(StandardSlackService service, String color, SlackPayload attachments, SlackPayload replies,
+                  SlackStartMessageAction startMessage, boolean replaceStart) {
+        this(service, color, attachments, replies);
+        this.startMessage = startMessage;
+        this.replaceStart = replaceStart;
+    }
+
+    public SlackService getService() {
+        return service;
+    }
+
+    public String getColor() {
+        return color;
+    }
+
+    /**
+     * Whether this delivery can be written to disk and replayed later.
+     */
+    boolean isPersistable() {
+        return service instanceof StandardSlackService;
+    }
+
+    public boolean deliver() {
+        if (attachments != null && service instanceof StandardSlackService) {
+            StandardSlackService standard = (StandardSlackService) service;
+            if (startMessage != null && replaceStart) {
+                return standard.update(attachments, replies, color, startMessage);
+            }
+            if (startMessage != null) {
+                return standard.publishStart(attachments, color, startMessage);
+            }
+            if (replies != null) {
+                return standard.publishThread(attachments, replies, color);
+            }
+            return standard.publish(attachments, color);
+        }
+        if (attachments != null) {
+            // other services only take json-lib attachments
+            boolean result = service.publish(JSONArray.fromObject(attachments.getAttachments()), color);
+            if (replies != null) {
+                result &= service.publish(JSONArray.fromObject(replies.getAttachments()), color);
+            }
+            return result;
+        }
+        boolean result = true;
+        for (String message : messages) {
+            result &= service.publish(message, color);
+        }
+        return result;
+    }
+
+    @Override
+    public void run() {
+        try {
+            if (!deliver()) {
+                logger.log(Level.WARNING, "Queued Slack notification could not be delivered");
+            }
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Error delivering queued Slack notification", e);
+        }
+    }
+}
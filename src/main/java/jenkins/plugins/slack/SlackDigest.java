@@ -0,0 +1,151 @@
+package jenkins.plugins.slack;
+
+import jenkins.util.Timer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Buffers notifications for the same Slack rooms and sends them as one multi-attachment post.
+ * <p>
+ * The first notification for a target opens a batch that is flushed when its window has passed or it reached its
+ * maximum number of attachments, whichever comes first. Flushed batches go through the
+ * {@link SlackNotificationQueue} like any other notification.
+ */
+public final class SlackDigest {
+
+    private static final Logger logger = Logger.getLogger(SlackDigest.class.getName());
+
+    public static final int DEFAULT_MAX_MESSAGES = 20;
+
+    /** Slack does not accept more attachments than this in one message. */
+    static final int MAX_ATTACHMENTS = 100;
+
+    private static final Map<String, Batch> BATCHES = new HashMap<String, Batch>();
+
+    private SlackDigest() {
+    }
+
+    /**
+     * Adds attachments to the batch for the service's rooms, opening one if needed.
+     *
+     * @return {@code false} if the service cannot be batched and the caller has to deliver the attachments itself
+     */
+    static boolean add(SlackService service, String color, SlackPayload attachments, int windowSeconds, int maxMessages) {
+        if (!(service instanceof StandardSlackService)) {
+            return false;
+        }
+        String key = ((StandardSlackService) service).getDigestKey();
+        int limit = Math.max(1, Math.min(maxMessages, MAX_ATTACHMENTS));
+        List<Batch> full = new ArrayList<Batch>(2);
+        synchronized (BATCHES) {
+            Batch batch = BATCHES.get(key);
+            if (batch != null && batch.size() + attachments.size() > MAX_ATTACHMENTS) {
+                // would not fit into a single message, send what we have first
+                BATCHES.remove(key);
+                full.add(batch);
+                batch = null;
+            }
+            if (batch == null) {
+                batch = new Batch(key, service);
+                BATCHES.put(key, batch);
+                batch.schedule(windowSeconds);
+            }
+            batch.add(color, attachments);
+            if (batch.size() >= limit) {
+                BATCHES.remove(key);
+                full.add(batch);
+            }
+        }
+        for (Batch batch : full) {
+            batch.flush();
+        }
+        return true;
+    }
+
+    /**
+     * Sends every open batch right away, e.g. when Jenkins shuts down.
+     */
+    public static void flushAll() {
+        List<Batch> batches;
+        synchronized (BATCHES) {
+            batches = new ArrayList<Batch>(BATCHES.values());
+            BATCHES.clear();
+        }
+        for (Batch batch : batches) {
+            batch.flush();
+        }
+    }
+
+    /**
+     * The most severe color of the batched notifications, used for the post as a whole.
+     */
+    static String combineColors(String current, String color) {
+        if (current == null || "danger".equals(color)) {
+            return color;
+        }
+        if ("danger".equals(current)) {
+            return current;
+        }
+        return "warning".equals(color) ? color : current;
+    }
+
+    private static final class Batch implements Runnable {
+        private final String key;
+        private final SlackService service;
+        private final List<SlackPayload> attachments = new ArrayList<SlackPayload>();
+        private int size;
+        private String color;
+        private ScheduledFuture<?> timeout;
+        private boolean flushed;
+
+        Batch(String key, SlackService service) {
+            this.key = key;
+            this.service = service;
+        }
+
+        void schedule(int windowSeconds) {
+            timeout = Timer.get().schedule(this, Math.max(0, windowSeconds), TimeUnit.SECONDS);
+        }
+
+        void add(String color, SlackPayload attachments) {
+            this.attachments.add(attachments);
+            this.size += attachments.size();
+            this.color = combineColors(this.color, color);
+        }
+
+        int size() {
+            return size;
+        }
+
+        @Override
+        public void run() {
+            synchronized (BATCHES) {
+                if (BATCHES.get(key) == this) {
+                    BATCHES.remove(key);
+                }
+            }
+            flush();
+        }
+
+        void flush() {
+            synchronized (this) {
+                if (flushed) {
+                    return;
+                }
+                flushed = true;
+            }
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            logger.fine("Flushing digest of " + size + " Slack notification(s)");
+            SlackMetrics.record("digest.size", size);
+            SlackNotificationQueue.get().submit(new SlackDelivery(service, color, SlackPayload.concat(attachments)));
+        }
+    }
+}
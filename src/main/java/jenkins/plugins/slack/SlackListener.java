@@ -4,12 +4,9 @@ import hudson.Extension;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
-import hudson.model.Descriptor;
 import hudson.model.TaskListener;
 import hudson.model.listeners.RunListener;
-import hudson.tasks.Publisher;
 
-import java.util.Map;
 import java.util.logging.Logger;
 
 @Extension
@@ -24,7 +21,13 @@ public class SlackListener extends RunListener<AbstractBuild> {
 
     @Override
     public void onCompleted(AbstractBuild r, TaskListener listener) {
-        getNotifier(r.getProject(), listener).completed(r);
+        FineGrainedNotifier notifier = getNotifier(r.getProject(), listener);
+        if (notifier instanceof ActiveNotifier) {
+            // lets the next build detect test regressions without loading this build's test report
+            SlackTestFingerprintAction.attach(r);
+        }
+        notifier.completed(r);
+        SlackResultIndex.record(r);
         super.onCompleted(r, listener);
     }
 
@@ -36,6 +39,7 @@ public class SlackListener extends RunListener<AbstractBuild> {
 
     @Override
     public void onDeleted(AbstractBuild r) {
+        SlackResultIndex.forget(r);
         // getNotifier(r.getProject()).deleted(r);
         // super.onDeleted(r);
     }
@@ -46,13 +50,10 @@ public class SlackListener extends RunListener<AbstractBuild> {
          super.onFinalized(r);
     }
 
-    @SuppressWarnings("unchecked")
     FineGrainedNotifier getNotifier(AbstractProject project, TaskListener listener) {
-        Map<Descriptor<Publisher>, Publisher> map = project.getPublishersList().toMap();
-        for (Publisher publisher : map.values()) {
-            if (publisher instanceof SlackNotifier) {
-                return new ActiveNotifier((SlackNotifier) publisher, (BuildListener)listener);
-            }
+        SlackNotifier notifier = SlackNotifierIndex.get(project);
+        if (notifier != null) {
+            return new ActiveNotifier(notifier, (BuildListener)listener);
         }
         return new DisabledNotifier();
     }
@@ -0,0 +1,84 @@
+package jenkins.plugins.slack;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory counters and measurements for Slack traffic, e.g. post attempts and retries or webhook command timings.
+ */
+public final class SlackMetrics {
+
+    private static final ConcurrentMap<String, Stat> STATS = new ConcurrentHashMap<String, Stat>();
+
+    private SlackMetrics() {
+    }
+
+    public static void count(String name) {
+        stat(name).record(0);
+    }
+
+    /**
+     * Records a measured value such as a wait time in milliseconds or a number of attempts.
+     */
+    public static void record(String name, long value) {
+        stat(name).record(value);
+    }
+
+    /**
+     * Returns the current statistics sorted by name.
+     */
+    public static Map<String, Stat> snapshot() {
+        return new TreeMap<String, Stat>(STATS);
+    }
+
+    static void reset() {
+        STATS.clear();
+    }
+
+    private static Stat stat(String name) {
+        Stat stat = STATS.get(name);
+        if (stat == null) {
+            Stat created = new Stat();
+            stat = STATS.putIfAbsent(name, created);
+            if (stat == null) {
+                stat = created;
+            }
+        }
+        return stat;
+    }
+
+    public static final class Stat {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            count.incrementAndGet();
+            total.addAndGet(value);
+            long current;
+            do {
+                current = max.get();
+            } while (value > current && !max.compareAndSet(current, value));
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getTotal() {
+            return total.get();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        public long getMean() {
+            long n = count.get();
+            return n == 0 ? 0 : total.get() / n;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package jenkins.plugins.slack;
+
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded background queue that delivers build notifications off the executor thread.
+ * <p>
+ * {@link ActiveNotifier} renders each message and hands it over as a {@link SlackDelivery}; a dedicated pool of
+ * worker threads publishes it. What happens when the queue is full is decided by the {@link OverflowPolicy}.
+ */
+public final class SlackNotificationQueue {
+
+    private static final Logger logger = Logger.getLogger(SlackNotificationQueue.class.getName());
+
+    public static final int DEFAULT_QUEUE_DEPTH = 1000;
+    public static final int DEFAULT_WORKER_COUNT = 2;
+
+    private static final String SPILL_DIRECTORY = "slack-queue-spill";
+
+    /** How often a blocked build checks whether {@link #configure} replaced the executor it waits on. */
+    private static final long BLOCK_RECHECK_MILLIS = 100;
+
+    public enum OverflowPolicy {
+        DROP_OLDEST("Drop the oldest queued notification"),
+        BLOCK("Block the build until there is room"),
+        SPILL_TO_DISK("Spill to disk and deliver later");
+
+        private final String displayName;
+
+        OverflowPolicy(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        public static OverflowPolicy forName(String name) {
+            for (OverflowPolicy policy : values()) {
+                if (policy.name().equals(name)) {
+                    return policy;
+                }
+            }
+            return DROP_OLDEST;
+        }
+    }
+
+    private static SlackNotificationQueue instance;
+
+    private final AtomicLong spillSequence = new AtomicLong();
+    /** Starts out {@code true} so anything spilled before the last restart is picked up. */
+    private volatile boolean hasSpilled = true;
+    private volatile ThreadPoolExecutor executor;
+    private int queueDepth;
+    private int workerCount;
+    private volatile OverflowPolicy overflowPolicy;
+
+    SlackNotificationQueue(int queueDepth, OverflowPolicy overflowPolicy, int workerCount) {
+        this.queueDepth = queueDepth;
+        this.overflowPolicy = overflowPolicy;
+        this.workerCount = workerCount;
+        this.executor = newExecutor(queueDepth, workerCount);
+    }
+
+    public static synchronized SlackNotificationQueue get() {
+        if (instance == null) {
+            SlackNotifier.DescriptorImpl descriptor = descriptor();
+            if (descriptor != null) {
+                instance = new SlackNotificationQueue(descriptor.getQueueDepth(),
+                        descriptor.getOverflowPolicy(), descriptor.getWorkerCount());
+            } else {
+                instance = new SlackNotificationQueue(DEFAULT_QUEUE_DEPTH, OverflowPolicy.DROP_OLDEST, DEFAULT_WORKER_COUNT);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Applies new settings from the global configuration. Changing the depth replaces the underlying executor;
+     * notifications already queued on the old one are still delivered.
+     */
+    public synchronized void configure(int queueDepth, OverflowPolicy overflowPolicy, int workerCount) {
+        this.overflowPolicy = overflowPolicy;
+        if (queueDepth != this.queueDepth) {
+            ThreadPoolExecutor old = executor;
+            executor = newExecutor(queueDepth, workerCount);
+            old.shutdown();
+        } else if (workerCount != this.workerCount) {
+            if (workerCount > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(workerCount);
+                executor.setCorePoolSize(workerCount);
+            } else {
+                executor.setCorePoolSize(workerCount);
+                executor.setMaximumPoolSize(workerCount);
+            }
+        }
+        this.queueDepth = queueDepth;
+        this.workerCount = workerCount;
+    }
+
+    public void submit(SlackDelivery delivery) {
+        executor.execute(delivery);
+    }
+
+    public int size() {
+        return executor.getQueue().size();
+    }
+
+    private ThreadPoolExecutor newExecutor(int queueDepth, int workerCount) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(workerCount, workerCount, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueDepth),
+                new NamingThreadFactory(new DaemonThreadFactory(), "Slack notification delivery"),
+                new OverflowHandler()) {
+            @Override
+            protected void afterExecute(Runnable r, Throwable t) {
+                super.afterExecute(r, t);
+                if (hasSpilled && getQueue().remainingCapacity() > getQueue().size()) {
+                    restoreSpilled(this);
+                }
+            }
+        };
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private class OverflowHandler implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor pool) {
+            SlackDelivery delivery = (SlackDelivery) r;
+            if (pool.isShutdown()) {
+                if (pool != executor) {
+                    // the executor was replaced by configure(), hand over to the current one
+                    submit(delivery);
+                } else {
+                    logger.warning("Slack notification queue is shut down, notification dropped");
+                }
+                return;
+            }
+            if (Thread.holdsLock(SlackNotificationQueue.this) && delivery.isPersistable() && spill(delivery)) {
+                // restoring lost the race for a free slot, keep the notification on disk for the next round
+                return;
+            }
+            OverflowPolicy policy = overflowPolicy;
+            if (policy == OverflowPolicy.SPILL_TO_DISK && delivery.isPersistable() && spill(delivery)) {
+                return;
+            }
+            if (policy == OverflowPolicy.BLOCK) {
+                block(delivery);
+                return;
+            }
+            Runnable dropped = pool.getQueue().poll();
+            if (dropped != null) {
+                logger.warning("Slack notification queue is full, dropping the oldest queued notification");
+            }
+            pool.execute(delivery);
+        }
+    }
+
+    /**
+     * Waits for room in the queue of the current executor, following it when {@link #configure} replaces it, so a
+     * notification never ends up in the queue of an executor that was shut down.
+     */
+    private void block(SlackDelivery delivery) {
+        try {
+            while (true) {
+                ThreadPoolExecutor current = executor;
+                if (current.isShutdown() && current == executor) {
+                    logger.warning("Slack notification queue is shut down, notification dropped");
+                    return;
+                }
+                if (current.getQueue().offer(delivery, BLOCK_RECHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (!current.isShutdown() || !current.getQueue().remove(delivery)) {
+                        // queued without execute(), make sure a worker is there to take it
+                        current.prestartCoreThread();
+                        return;
+                    }
+                    // the executor was shut down meanwhile, try again on the one that replaced it
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warning("Interrupted while waiting for room in the Slack notification queue, notification dropped");
+        }
+    }
+
+    private boolean spill(SlackDelivery delivery) {
+        File dir = spillDirectory();
+        if (dir == null) {
+            return false;
+        }
+        File file = new File(dir, String.format("%013d-%06d.xml", System.currentTimeMillis(), spillSequence.incrementAndGet() % 1000000));
+        try {
+            new XmlFile(Jenkins.XSTREAM2, file).write(delivery);
+            hasSpilled = true;
+            logger.fine("Slack notification queue is full, spilled notification to " + file);
+            return true;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not spill Slack notification to disk", e);
+            return false;
+        }
+    }
+
+    private synchronized void restoreSpilled(ThreadPoolExecutor pool) {
+        File dir = spillDirectory();
+        String[] names = dir != null ? dir.list() : null;
+        if (names == null || names.length == 0) {
+            hasSpilled = false;
+            return;
+        }
+        Arrays.sort(names);
+        for (String name : names) {
+            if (pool.getQueue().remainingCapacity() == 0) {
+                return;
+            }
+            File file = new File(dir, name);
+            try {
+                Object delivery = new XmlFile(Jenkins.XSTREAM2, file).read();
+                if (delivery instanceof SlackDelivery) {
+                    pool.execute((SlackDelivery) delivery);
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not restore spilled Slack notification " + file, e);
+            }
+            if (!file.delete()) {
+                logger.warning("Could not delete spilled Slack notification " + file);
+            }
+        }
+    }
+
+    private static File spillDirectory() {
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            return null;
+        }
+        File dir = new File(jenkins.getRootDir(), SPILL_DIRECTORY);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return null;
+        }
+        return dir;
+    }
+
+    private static SlackNotifier.DescriptorImpl descriptor() {
+        Jenkins jenkins = Jenkins.getInstance();
+        return jenkins != null ? jenkins.getDescriptorByType(SlackNotifier.DescriptorImpl.class) : null;
+    }
+
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void deliverSpilledNotifications() {
+        SlackNotificationQueue queue = get();
+        queue.restoreSpilled(queue.executor);
+        queue.executor.prestartAllCoreThreads();
+    }
+
+    @Terminator
+    public static void shutdown() throws InterruptedException {
+        // hand over buffered digests while the queue still accepts them
+        SlackDigest.flushAll();
+        SlackNotificationQueue queue;
+        synchronized (SlackNotificationQueue.class) {
+            queue = instance;
+        }
+        if (queue != null) {
+            queue.executor.shutdown();
+            queue.executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -9,7 +9,6 @@ import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
 import hudson.model.Item;
-import hudson.model.Descriptor;
 import hudson.model.listeners.ItemListener;
 import hudson.security.ACL;
 import hudson.tasks.BuildStepDescriptor;
@@ -23,6 +22,7 @@ import jenkins.plugins.slack.config.ItemConfigMigrator;
 import net.sf.json.JSONObject;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
 import org.jenkinsci.plugins.displayurlapi.DisplayURLProvider;
 import org.jenkinsci.plugins.plaincredentials.StringCredentials;
 import org.kohsuke.stapler.DataBoundConstructor;
@@ -32,6 +32,7 @@ import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.export.Exported;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Map;
 import java.util.logging.Logger;
 
@@ -62,6 +63,11 @@ public class SlackNotifier extends Notifier {
     private CommitInfoChoice commitInfoChoice;
     private boolean includeCustomMessage;
     private String customMessage;
+    private boolean combineMessages;
+    private int digestWindowSeconds;
+    private int digestMaxMessages;
+    private boolean updateStartMessage;
+    private boolean threadDetails;
 
     @Override
     public DescriptorImpl getDescriptor() {
@@ -182,6 +188,37 @@ public class SlackNotifier extends Notifier {
         return customMessage;
     }
 
+    public boolean getCombineMessages() {
+        return combineMessages;
+    }
+
+    /**
+     * @return whether the build result replaces the start notification through {@code chat.update} when posting as a
+     * bot user
+     */
+    public boolean getUpdateStartMessage() {
+        return updateStartMessage;
+    }
+
+    /**
+     * @return whether failed tests, commits and the custom message are posted as a thread reply to the result when
+     * posting as a bot user
+     */
+    public boolean getThreadDetails() {
+        return threadDetails;
+    }
+
+    /**
+     * @return how long notifications for the same rooms are buffered before being sent together, 0 to send right away
+     */
+    public int getDigestWindowSeconds() {
+        return digestWindowSeconds;
+    }
+
+    public int getDigestMaxMessages() {
+        return digestMaxMessages > 0 ? digestMaxMessages : SlackDigest.DEFAULT_MAX_MESSAGES;
+    }
+
     @DataBoundSetter
     public void setStartNotification(boolean startNotification) {
         this.startNotification = startNotification;
@@ -247,6 +284,31 @@ public class SlackNotifier extends Notifier {
         this.customMessage = customMessage;
     }
 
+    @DataBoundSetter
+    public void setCombineMessages(boolean combineMessages) {
+        this.combineMessages = combineMessages;
+    }
+
+    @DataBoundSetter
+    public void setUpdateStartMessage(boolean updateStartMessage) {
+        this.updateStartMessage = updateStartMessage;
+    }
+
+    @DataBoundSetter
+    public void setThreadDetails(boolean threadDetails) {
+        this.threadDetails = threadDetails;
+    }
+
+    @DataBoundSetter
+    public void setDigestWindowSeconds(int digestWindowSeconds) {
+        this.digestWindowSeconds = Math.max(0, digestWindowSeconds);
+    }
+
+    @DataBoundSetter
+    public void setDigestMaxMessages(int digestMaxMessages) {
+        this.digestMaxMessages = digestMaxMessages;
+    }
+
     @DataBoundConstructor
     public SlackNotifier() {
         super();
@@ -289,6 +351,13 @@ public class SlackNotifier extends Notifier {
     }
 
     public SlackService newSlackService(AbstractBuild r, BuildListener listener) {
+        return new NotificationContext(this, r, listener).getSlack();
+    }
+
+    /**
+     * Resolves the job's Slack settings, falling back to the global ones, and expands variables in them.
+     */
+    SlackService newSlackService(EnvVars env) {
         String teamDomain = this.teamDomain;
         if (StringUtils.isEmpty(teamDomain)) {
             teamDomain = getDescriptor().getTeamDomain();
@@ -314,13 +383,6 @@ public class SlackNotifier extends Notifier {
             room = getDescriptor().getRoom();
         }
 
-        EnvVars env = null;
-        try {
-            env = r.getEnvironment(listener);
-        } catch (Exception e) {
-            listener.getLogger().println("Error retrieving environment vars: " + e.getMessage());
-            env = new EnvVars();
-        }
         baseUrl = env.expand(baseUrl);
         teamDomain = env.expand(teamDomain);
         authToken = env.expand(authToken);
@@ -338,13 +400,8 @@ public class SlackNotifier extends Notifier {
     @Override
     public boolean prebuild(AbstractBuild<?, ?> build, BuildListener listener) {
         if (startNotification) {
-            Map<Descriptor<Publisher>, Publisher> map = build.getProject().getPublishersList().toMap();
-            for (Publisher publisher : map.values()) {
-                if (publisher instanceof SlackNotifier) {
-                    logger.info("Invoking Started...");
-                    new ActiveNotifier((SlackNotifier) publisher, listener).started(build);
-                }
-            }
+            logger.info("Invoking Started...");
+            new ActiveNotifier(this, listener).started(build);
         }
         return super.prebuild(build, listener);
     }
@@ -359,8 +416,12 @@ public class SlackNotifier extends Notifier {
         private boolean botUser;
         private String room;
         private String sendAs;
+        private int queueDepth;
+        private SlackNotificationQueue.OverflowPolicy overflowPolicy;
+        private int workerCount;
 
         public static final CommitInfoChoice[] COMMIT_INFO_CHOICES = CommitInfoChoice.values();
+        public static final SlackNotificationQueue.OverflowPolicy[] OVERFLOW_POLICIES = SlackNotificationQueue.OverflowPolicy.values();
 
         public DescriptorImpl() {
             load();
@@ -394,6 +455,26 @@ public class SlackNotifier extends Notifier {
             return sendAs;
         }
 
+        public int getQueueDepth() {
+            return queueDepth > 0 ? queueDepth : SlackNotificationQueue.DEFAULT_QUEUE_DEPTH;
+        }
+
+        public SlackNotificationQueue.OverflowPolicy getOverflowPolicy() {
+            return overflowPolicy != null ? overflowPolicy : SlackNotificationQueue.OverflowPolicy.DROP_OLDEST;
+        }
+
+        public int getWorkerCount() {
+            return workerCount > 0 ? workerCount : SlackNotificationQueue.DEFAULT_WORKER_COUNT;
+        }
+
+        public Collection<SlackCircuitBreaker> getCircuitBreakers() {
+            return SlackCircuitBreaker.all();
+        }
+
+        public Map<String, SlackMetrics.Stat> getDeliveryMetrics() {
+            return SlackMetrics.snapshot();
+        }
+
         public ListBoxModel doFillTokenCredentialIdItems() {
             if (!Jenkins.getInstance().hasPermission(Jenkins.ADMINISTER)) {
                 return new ListBoxModel();
@@ -443,9 +524,16 @@ public class SlackNotifier extends Notifier {
             CommitInfoChoice commitInfoChoice = CommitInfoChoice.forDisplayName(sr.getParameter("slackCommitInfoChoice"));
             boolean includeCustomMessage = "on".equals(sr.getParameter("includeCustomMessage"));
             String customMessage = sr.getParameter("customMessage");
-            return new SlackNotifier(baseUrl, teamDomain, token, botUser, room, tokenCredentialId, sendAs, startNotification, notifyAborted,
+            boolean combineMessages = "true".equals(sr.getParameter("slackCombineMessages"));
+            SlackNotifier notifier = new SlackNotifier(baseUrl, teamDomain, token, botUser, room, tokenCredentialId, sendAs, startNotification, notifyAborted,
                     notifyFailure, notifyNotBuilt, notifySuccess, notifyUnstable, notifyRegression, notifyBackToNormal, notifyRepeatedFailure,
                     includeTestSummary, includeFailedTests, commitInfoChoice, includeCustomMessage, customMessage);
+            notifier.setCombineMessages(combineMessages);
+            notifier.setUpdateStartMessage("true".equals(sr.getParameter("slackUpdateStartMessage")));
+            notifier.setThreadDetails("true".equals(sr.getParameter("slackThreadDetails")));
+            notifier.setDigestWindowSeconds(NumberUtils.toInt(sr.getParameter("slackDigestWindowSeconds")));
+            notifier.setDigestMaxMessages(NumberUtils.toInt(sr.getParameter("slackDigestMaxMessages"), SlackDigest.DEFAULT_MAX_MESSAGES));
+            return notifier;
         }
 
         @Override
@@ -460,7 +548,11 @@ public class SlackNotifier extends Notifier {
             botUser = "true".equals(sr.getParameter("slackBotUser"));
             room = sr.getParameter("slackRoom");
             sendAs = sr.getParameter("slackSendAs");
+            queueDepth = NumberUtils.toInt(sr.getParameter("slackQueueDepth"), SlackNotificationQueue.DEFAULT_QUEUE_DEPTH);
+            overflowPolicy = SlackNotificationQueue.OverflowPolicy.forName(sr.getParameter("slackOverflowPolicy"));
+            workerCount = NumberUtils.toInt(sr.getParameter("slackWorkerCount"), SlackNotificationQueue.DEFAULT_WORKER_COUNT);
             save();
+            SlackNotificationQueue.get().configure(getQueueDepth(), getOverflowPolicy(), getWorkerCount());
             return super.configure(sr, formData);
         }
 
@@ -507,7 +599,10 @@ public class SlackNotifier extends Notifier {
                 }
                 SlackService testSlackService = getSlackService(targetUrl, targetDomain, targetToken, targetTokenCredentialId, targetBotUser, targetRoom);
                 String message = "Slack/Jenkins plugin: you're all set on " + DisplayURLProvider.get().getRoot();
-                boolean success = testSlackService.publish(message, "good");
+                // report what finally happened rather than the first attempt, which may be retried
+                boolean success = testSlackService instanceof StandardSlackService
+                        ? ((StandardSlackService) testSlackService).publishAndWait(message, "good")
+                        : testSlackService.publish(message, "good");
                 return success ? FormValidation.ok("Success") : FormValidation.error("Failure");
             } catch (Exception e) {
                 return FormValidation.error("Client error : " + e.getMessage());
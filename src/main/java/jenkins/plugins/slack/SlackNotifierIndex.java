@@ -0,0 +1,111 @@
+package jenkins.plugins.slack;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.AbstractProject;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Saveable;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.SaveableListener;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Remembers which {@link SlackNotifier}, if any, each project is configured with, so build events for the many jobs
+ * without one return right away instead of scanning their publishers.
+ * <p>
+ * A project is looked up on its first build and forgotten whenever it is created, updated, saved, moved or deleted.
+ */
+@SuppressWarnings("rawtypes")
+public final class SlackNotifierIndex {
+
+    /** Cached for projects without a {@link SlackNotifier}, since {@code WeakHashMap} cannot tell them apart. */
+    private static final Object NONE = new Object();
+
+    private static final Map<AbstractProject, Object> NOTIFIERS = new WeakHashMap<AbstractProject, Object>();
+
+    private SlackNotifierIndex() {
+    }
+
+    /**
+     * @return the project's Slack notifier, or {@code null} if it does not notify Slack
+     */
+    public static SlackNotifier get(AbstractProject project) {
+        synchronized (NOTIFIERS) {
+            Object notifier = NOTIFIERS.get(project);
+            if (notifier == null) {
+                notifier = project.getPublishersList().get(SlackNotifier.class);
+                NOTIFIERS.put(project, notifier != null ? notifier : NONE);
+            }
+            return notifier instanceof SlackNotifier ? (SlackNotifier) notifier : null;
+        }
+    }
+
+    /**
+     * Forgets an item and, for folders and multi-configuration projects, the projects it contains.
+     */
+    static void invalidate(Object item) {
+        synchronized (NOTIFIERS) {
+            NOTIFIERS.remove(item);
+            if (item instanceof ItemGroup) {
+                for (Iterator<AbstractProject> projects = NOTIFIERS.keySet().iterator(); projects.hasNext(); ) {
+                    if (projects.next().getParent() == item) {
+                        projects.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    static void clear() {
+        synchronized (NOTIFIERS) {
+            NOTIFIERS.clear();
+        }
+    }
+
+    @Extension
+    public static final class ItemInvalidator extends ItemListener {
+
+        @Override
+        public void onCreated(Item item) {
+            invalidate(item);
+        }
+
+        @Override
+        public void onCopied(Item src, Item item) {
+            invalidate(item);
+        }
+
+        @Override
+        public void onUpdated(Item item) {
+            invalidate(item);
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            invalidate(item);
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            invalidate(item);
+        }
+    }
+
+    /**
+     * Catches publishers changed without going through the job configuration, which saves the project.
+     */
+    @Extension
+    public static final class ConfigInvalidator extends SaveableListener {
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof Item) {
+                invalidate(o);
+            }
+        }
+    }
+}
@@ -0,0 +1,481 @@
+package jenkins.plugins.slack;
+
+import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import hudson.model.PeriodicWork;
+import hudson.util.Secret;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Durable outbox giving at-least-once delivery of room posts across restarts and Slack outages.
+ * <p>
+ * {@link StandardSlackService} appends every post here before sending it and acknowledges it once Slack accepted
+ * it (or rejected it for good). Records are JSON lines in append-only segment files under
+ * {@code JENKINS_HOME/slack-outbox}. Writes are fsync'ed in batches. Whenever a new segment is started the pending
+ * posts are copied into it and all older segments are deleted, so a post that never goes through cannot keep old
+ * segments alive. Posts still pending at startup, or whose retries ran out, are redelivered until they are
+ * {@link #MAX_ATTEMPTS} redelivery rounds or {@link #MAX_AGE_HOURS} old, after which they are given up.
+ */
+public final class SlackOutbox {
+
+    private static final Logger logger = Logger.getLogger(SlackOutbox.class.getName());
+
+    private static final String DIRECTORY = "slack-outbox";
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d+)\\.log");
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static final long SEGMENT_SIZE = Long.getLong(SlackOutbox.class.getName() + ".segmentSize", 1024 * 1024L);
+    static final long SYNC_INTERVAL_MILLIS = Long.getLong(SlackOutbox.class.getName() + ".syncIntervalMillis", 200L);
+    static final long REDELIVERY_INTERVAL_MINUTES = Long.getLong(SlackOutbox.class.getName() + ".redeliveryIntervalMinutes", 5L);
+    static final int MAX_ATTEMPTS = Integer.getInteger(SlackOutbox.class.getName() + ".maxAttempts", 12);
+    static final long MAX_AGE_HOURS = Long.getLong(SlackOutbox.class.getName() + ".maxAgeHours", 24L);
+
+    private static SlackOutbox instance;
+
+    private final File directory;
+    private final long segmentSize;
+    /** Pending posts in the order they were written. */
+    private final Map<String, Entry> pending = new LinkedHashMap<String, Entry>();
+    /** Pending posts nobody is currently trying to deliver. */
+    private final Set<String> parked = new LinkedHashSet<String>();
+
+    private long activeSegment;
+    private FileOutputStream out;
+    private long activeSize;
+    /** Size at which the active segment is rolled over, one segment's worth past the pending posts copied into it. */
+    private long rolloverSize;
+    private boolean unsynced;
+
+    SlackOutbox(File directory) throws IOException {
+        this(directory, SEGMENT_SIZE);
+    }
+
+    SlackOutbox(File directory, long segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        load();
+        openSegment(activeSegment + 1);
+    }
+
+    /**
+     * @return the outbox, or {@code null} when there is no Jenkins home to write it to
+     */
+    public static synchronized SlackOutbox get() {
+        if (instance == null) {
+            Jenkins jenkins = Jenkins.getInstance();
+            if (jenkins == null) {
+                return null;
+            }
+            try {
+                instance = new SlackOutbox(new File(jenkins.getRootDir(), DIRECTORY));
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Slack outbox unavailable, notifications will not survive a restart", e);
+                return null;
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Records a post that is about to be sent.
+     *
+     * @return the id to acknowledge it with
+     */
+    public synchronized String append(Entry entry) throws IOException {
+        String id = UUID.randomUUID().toString();
+        write(addRecord(id, entry));
+        pending.put(id, entry);
+        return id;
+    }
+
+    /**
+     * Marks a post as done, either delivered or permanently rejected by Slack.
+     */
+    public synchronized void ack(String id) {
+        if (pending.remove(id) == null) {
+            return;
+        }
+        parked.remove(id);
+        try {
+            write(record("ack", id));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not record Slack outbox acknowledgement, post may be sent again", e);
+        }
+    }
+
+    /**
+     * Leaves a post whose retries ran out for the next redelivery round.
+     */
+    public synchronized void park(String id) {
+        if (pending.containsKey(id)) {
+            parked.add(id);
+        }
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    synchronized Set<String> pendingIds() {
+        return new LinkedHashSet<String>(pending.keySet());
+    }
+
+    /**
+     * Resends every parked post through a fresh {@link StandardSlackService}. Posts that have been redelivered
+     * {@link #MAX_ATTEMPTS} times or were first written more than {@link #MAX_AGE_HOURS} ago are given up instead.
+     */
+    public void redeliverParked() {
+        redeliverParked(System.currentTimeMillis());
+    }
+
+    void redeliverParked(long now) {
+        Map<String, Entry> batch = new LinkedHashMap<String, Entry>();
+        synchronized (this) {
+            List<String> expired = new ArrayList<String>();
+            for (String id : parked) {
+                Entry entry = pending.get(id);
+                if (entry.attempts >= MAX_ATTEMPTS || now - entry.enqueuedAt > TimeUnit.HOURS.toMillis(MAX_AGE_HOURS)) {
+                    expired.add(id);
+                    continue;
+                }
+                entry.attempts++;
+                try {
+                    write(record("attempt", id));
+                } catch (IOException e) {
+                    logger.log(Level.FINE, "Could not record Slack outbox redelivery attempt", e);
+                }
+                batch.put(id, entry);
+            }
+            parked.clear();
+            for (String id : expired) {
+                Entry entry = pending.get(id);
+                logger.warning("Giving up on Slack post to " + entry.roomId + " on "
+                        + (StringUtils.isEmpty(entry.baseUrl) ? entry.teamDomain : entry.baseUrl) + " after "
+                        + entry.attempts + " redelivery attempts: " + entry.attachments);
+                SlackMetrics.count("outbox.expired");
+                ack(id);
+            }
+        }
+        if (!batch.isEmpty()) {
+            logger.info("Redelivering " + batch.size() + " Slack notification(s) from the outbox");
+        }
+        for (Map.Entry<String, Entry> e : batch.entrySet()) {
+            e.getValue().redeliver(e.getKey());
+        }
+    }
+
+    synchronized void sync() {
+        if (!unsynced || out == null) {
+            return;
+        }
+        try {
+            out.getChannel().force(false);
+            unsynced = false;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not sync Slack outbox", e);
+        }
+    }
+
+    synchronized void close() {
+        sync();
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Error closing Slack outbox segment", e);
+            }
+            out = null;
+        }
+    }
+
+    private static JSONObject record(String op, String id) {
+        JSONObject record = new JSONObject();
+        record.put("op", op);
+        record.put("id", id);
+        return record;
+    }
+
+    private static JSONObject addRecord(String id, Entry entry) {
+        JSONObject record = record("add", id);
+        record.put("entry", entry.toJSON());
+        return record;
+    }
+
+    private void write(JSONObject record) throws IOException {
+        if (out == null) {
+            throw new IOException("Slack outbox is closed");
+        }
+        if (activeSize >= rolloverSize) {
+            openSegment(activeSegment + 1);
+        }
+        append(record);
+        if (!unsynced) {
+            unsynced = true;
+            // group commit: one fsync covers every record written until it runs
+            Timer.get().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    sync();
+                }
+            }, SYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void append(JSONObject record) throws IOException {
+        byte[] line = (record.toString() + "\n").getBytes(UTF8);
+        out.write(line);
+        activeSize += line.length;
+    }
+
+    /**
+     * Starts a new segment holding a copy of every pending post, then deletes all older segments. Their
+     * acknowledgements are no longer needed once the posts still pending are safely on disk in the new segment.
+     */
+    private void openSegment(long segment) throws IOException {
+        if (out != null) {
+            sync();
+            out.close();
+        }
+        activeSegment = segment;
+        File file = segmentFile(segment);
+        out = new FileOutputStream(file, true);
+        activeSize = file.length();
+        for (Map.Entry<String, Entry> e : pending.entrySet()) {
+            append(addRecord(e.getKey(), e.getValue()));
+        }
+        out.getChannel().force(false);
+        unsynced = false;
+        rolloverSize = activeSize + segmentSize;
+        for (long older : segmentNumbers()) {
+            File old = segmentFile(older);
+            if (older < segment && !old.delete()) {
+                logger.warning("Could not delete Slack outbox segment " + old);
+            }
+        }
+    }
+
+    private List<Long> segmentNumbers() {
+        List<Long> numbers = new ArrayList<Long>();
+        String[] names = directory.list();
+        if (names != null) {
+            for (String name : names) {
+                Matcher m = SEGMENT_NAME.matcher(name);
+                if (m.matches()) {
+                    numbers.add(Long.parseLong(m.group(1)));
+                }
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    private void load() throws IOException {
+        for (long segment : segmentNumbers()) {
+            activeSegment = segment;
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(segmentFile(segment)), UTF8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    replay(line);
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        // everything left over from before the restart is waiting to be redelivered
+        parked.addAll(pending.keySet());
+    }
+
+    private void replay(String line) {
+        if (line.trim().isEmpty()) {
+            return;
+        }
+        try {
+            JSONObject record = JSONObject.fromObject(line);
+            String id = record.getString("id");
+            String op = record.getString("op");
+            if ("add".equals(op)) {
+                // a post copied forward into a newer segment replaces the original
+                pending.put(id, Entry.fromJSON(record.getJSONObject("entry")));
+            } else if ("attempt".equals(op)) {
+                Entry entry = pending.get(id);
+                if (entry != null) {
+                    entry.attempts++;
+                }
+            } else {
+                pending.remove(id);
+            }
+        } catch (JSONException e) {
+            // a torn write from a crash; the post it belonged to was never acknowledged to anyone
+            logger.log(Level.FINE, "Skipping unreadable Slack outbox record", e);
+        }
+    }
+
+    private File segmentFile(long segment) {
+        return new File(directory, String.format("segment-%012d.log", segment));
+    }
+
+    /**
+     * Everything needed to send a post to one room again.
+     */
+    public static final class Entry {
+        final String baseUrl;
+        final String teamDomain;
+        final Secret token;
+        final String authTokenCredentialId;
+        final boolean botUser;
+        final String roomId;
+        final String attachments;
+        final String color;
+        /** Channel and timestamp of the message a {@code chat.update} post replaces. */
+        String updateChannel;
+        String updateTs;
+        /** Channel and timestamp of the message a thread reply is posted under. */
+        String threadChannel;
+        String threadTs;
+        /** Attachments to reply with in the thread of this post once it succeeded, or {@code null}. */
+        String replies;
+        /** When the post was first written to the outbox. */
+        long enqueuedAt = System.currentTimeMillis();
+        /** Redelivery rounds started for the post. */
+        int attempts;
+
+        public Entry(String baseUrl, String teamDomain, String token, String authTokenCredentialId, boolean botUser,
+                     String roomId, String attachments, String color) {
+            this.baseUrl = baseUrl;
+            this.teamDomain = teamDomain;
+            this.token = token != null ? Secret.fromString(token) : null;
+            this.authTokenCredentialId = authTokenCredentialId;
+            this.botUser = botUser;
+            this.roomId = roomId;
+            this.attachments = attachments;
+            this.color = color;
+        }
+
+        Entry replacing(String channel, String ts) {
+            this.updateChannel = channel;
+            this.updateTs = ts;
+            return this;
+        }
+
+        Entry inThread(String channel, String ts) {
+            this.threadChannel = channel;
+            this.threadTs = ts;
+            return this;
+        }
+
+        Entry withReplies(String replies) {
+            this.replies = replies;
+            return this;
+        }
+
+        void redeliver(String id) {
+            new StandardSlackService(baseUrl, teamDomain, token != null ? token.getPlainText() : null,
+                    authTokenCredentialId, botUser, roomId)
+                    .redeliver(id, attachments, color, updateChannel, updateTs, threadChannel, threadTs, replies);
+        }
+
+        JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("baseUrl", baseUrl);
+            json.put("teamDomain", teamDomain);
+            // keep the token encrypted on disk like every other Jenkins secret
+            json.put("token", token != null ? token.getEncryptedValue() : null);
+            json.put("authTokenCredentialId", authTokenCredentialId);
+            json.put("botUser", botUser);
+            json.put("roomId", roomId);
+            json.put("attachments", attachments);
+            json.put("color", color);
+            if (updateTs != null) {
+                json.put("updateChannel", updateChannel);
+                json.put("updateTs", updateTs);
+            }
+            if (threadTs != null) {
+                json.put("threadChannel", threadChannel);
+                json.put("threadTs", threadTs);
+            }
+            if (replies != null) {
+                json.put("replies", replies);
+            }
+            json.put("enqueuedAt", enqueuedAt);
+            json.put("attempts", attempts);
+            return json;
+        }
+
+        static Entry fromJSON(JSONObject json) {
+            String token = json.optString("token", null);
+            Entry entry = new Entry(json.optString("baseUrl", null), json.optString("teamDomain", null),
+                    token != null ? Secret.toString(Secret.fromString(token)) : null,
+                    json.optString("authTokenCredentialId", null), json.optBoolean("botUser"),
+                    json.getString("roomId"), json.getString("attachments"), json.optString("color", null))
+                    .replacing(json.optString("updateChannel", null), json.optString("updateTs", null))
+                    .inThread(json.optString("threadChannel", null), json.optString("threadTs", null))
+                    .withReplies(json.optString("replies", null));
+            entry.enqueuedAt = json.optLong("enqueuedAt", entry.enqueuedAt);
+            entry.attempts = json.optInt("attempts");
+            return entry;
+        }
+    }
+
+    @Extension
+    public static final class Redelivery extends PeriodicWork {
+
+        @Override
+        public long getRecurrencePeriod() {
+            return TimeUnit.MINUTES.toMillis(REDELIVERY_INTERVAL_MINUTES);
+        }
+
+        @Override
+        protected void doRun() {
+            SlackOutbox outbox = get();
+            if (outbox != null) {
+                outbox.redeliverParked();
+            }
+        }
+    }
+
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void redeliverOnStartup() {
+        SlackOutbox outbox = get();
+        if (outbox != null) {
+            outbox.redeliverParked();
+        }
+    }
+
+    @Terminator
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.close();
+        }
+    }
+}
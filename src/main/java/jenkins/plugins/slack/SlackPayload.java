@@ -0,0 +1,230 @@
+package jenkins.plugins.slack;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Attachments of one publish, serialized once and shared by the posts to every room.
+ * <p>
+ * Messages are streamed to JSON with a Jackson generator rather than built as a json-lib tree, and the payload is
+ * handed as is from {@link ActiveNotifier} through the {@link SlackNotificationQueue} to the request bodies. The
+ * URL-encoded form of the attachments is computed at most once and spliced into each room's request body.
+ * <p>
+ * {@code chat.postMessage} bodies larger than {@code jenkins.plugins.slack.SlackPayload.gzipThresholdBytes} are
+ * gzip-compressed; compression is off unless the property is set.
+ */
+final class SlackPayload {
+
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static final int GZIP_THRESHOLD_BYTES = Integer.getInteger(SlackPayload.class.getName() + ".gzipThresholdBytes", -1);
+
+    private final String attachments;
+    /** Number of attachments, counted from the JSON on first use if not known up front. */
+    private int size;
+    private transient volatile String encodedAttachments;
+
+    /**
+     * Wraps attachments that are already serialized as a JSON array.
+     */
+    SlackPayload(String attachments) {
+        this(attachments, -1);
+    }
+
+    private SlackPayload(String attachments, int size) {
+        this.attachments = attachments;
+        this.size = size;
+    }
+
+    static SlackPayload forMessage(String message, String color) {
+        return forMessages(color, message);
+    }
+
+    /**
+     * Renders each message as a markdown-enabled attachment of one post.
+     */
+    static SlackPayload forMessages(String color, String... messages) {
+        StringWriter out = new StringWriter();
+        try {
+            JsonGenerator json = JSON.createGenerator(out);
+            json.writeStartArray();
+            for (String message : messages) {
+                writeAttachment(json, message, color);
+            }
+            json.writeEndArray();
+            json.close();
+        } catch (IOException e) {
+            // a StringWriter does not throw
+            throw new IllegalStateException(e);
+        }
+        return new SlackPayload(out.toString(), messages.length);
+    }
+
+    private static void writeAttachment(JsonGenerator json, String message, String color) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("fallback", message);
+        json.writeStringField("color", color);
+        json.writeArrayFieldStart("fields");
+        json.writeStartObject();
+        json.writeBooleanField("short", false);
+        json.writeStringField("value", message);
+        json.writeEndObject();
+        json.writeEndArray();
+        json.writeArrayFieldStart("mrkdwn_in");
+        json.writeString("pretext");
+        json.writeString("text");
+        json.writeString("fields");
+        json.writeEndArray();
+        json.writeEndObject();
+    }
+
+    /**
+     * Joins the attachments of several payloads into one post, without parsing them.
+     */
+    static SlackPayload concat(List<SlackPayload> payloads) {
+        StringBuilder joined = new StringBuilder("[");
+        int size = 0;
+        for (SlackPayload payload : payloads) {
+            String elements = payload.attachments.substring(1, payload.attachments.length() - 1).trim();
+            if (elements.isEmpty()) {
+                continue;
+            }
+            if (size > 0) {
+                joined.append(',');
+            }
+            joined.append(elements);
+            size += payload.size();
+        }
+        return new SlackPayload(joined.append(']').toString(), size);
+    }
+
+    /**
+     * @return the attachments as a JSON array
+     */
+    String getAttachments() {
+        return attachments;
+    }
+
+    /**
+     * @return the number of attachments
+     */
+    int size() {
+        if (size < 0) {
+            size = count(attachments);
+        }
+        return size;
+    }
+
+    private static int count(String array) {
+        int count = 0;
+        try {
+            JsonParser json = JSON.createParser(array);
+            json.nextToken();
+            for (JsonToken token = json.nextToken(); token != null && token != JsonToken.END_ARRAY;
+                 token = json.nextToken()) {
+                json.skipChildren();
+                count++;
+            }
+            json.close();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Not a JSON array: " + array, e);
+        }
+        return count;
+    }
+
+    String getEncodedAttachments() {
+        String encoded = encodedAttachments;
+        if (encoded == null) {
+            encoded = encode(attachments);
+            encodedAttachments = encoded;
+        }
+        return encoded;
+    }
+
+    /**
+     * Builds the form body of an incoming webhook post to one room.
+     */
+    HttpEntity toWebhookEntity(String roomId) {
+        String head = "{\"channel\":\"" + quote(roomId) + "\",\"link_names\":\"1\",\"attachments\":";
+        String body = "payload=" + encode(head) + getEncodedAttachments() + encode("}");
+        return new ByteArrayEntity(body.getBytes(UTF8), ContentType.APPLICATION_FORM_URLENCODED);
+    }
+
+    /**
+     * Builds the JSON body of a bot user {@code chat.postMessage} call to one room.
+     */
+    HttpEntity toChatPostMessageEntity(String roomId) {
+        return toChatPostMessageEntity(roomId, null);
+    }
+
+    /**
+     * Builds the JSON body of a bot user {@code chat.postMessage} call replying in the thread of a message.
+     */
+    HttpEntity toChatPostMessageEntity(String channel, String threadTs) {
+        String thread = threadTs != null ? "\"thread_ts\":\"" + quote(threadTs) + "\"," : "";
+        String body = "{\"channel\":\"" + quote(channel) + "\"," + thread
+                + "\"link_names\":true,\"as_user\":true,\"attachments\":" + attachments + "}";
+        byte[] bytes = body.getBytes(UTF8);
+        if (GZIP_THRESHOLD_BYTES < 0 || bytes.length <= GZIP_THRESHOLD_BYTES) {
+            return new ByteArrayEntity(bytes, ContentType.APPLICATION_JSON);
+        }
+        ByteArrayEntity entity = new ByteArrayEntity(gzip(bytes), ContentType.APPLICATION_JSON);
+        entity.setContentEncoding("gzip");
+        return entity;
+    }
+
+    /**
+     * Builds the JSON body of a bot user {@code chat.update} call replacing an earlier message.
+     */
+    HttpEntity toChatUpdateEntity(String channel, String ts) {
+        String body = "{\"channel\":\"" + quote(channel) + "\",\"ts\":\"" + quote(ts)
+                + "\",\"link_names\":true,\"as_user\":true,\"attachments\":" + attachments + "}";
+        return new ByteArrayEntity(body.getBytes(UTF8), ContentType.APPLICATION_JSON);
+    }
+
+    @Override
+    public String toString() {
+        return attachments;
+    }
+
+    private static String quote(String value) {
+        return new String(JsonStringEncoder.getInstance().quoteAsString(value));
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        try {
+            GZIPOutputStream gzip = new GZIPOutputStream(out);
+            gzip.write(bytes);
+            gzip.close();
+        } catch (IOException e) {
+            // a ByteArrayOutputStream does not throw
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package jenkins.plugins.slack;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client-side token bucket limiter for outbound Slack posts, keyed by workspace and channel.
+ * <p>
+ * Slack allows roughly one message per second per channel. Callers that exceed the rate reserve a future slot
+ * and post when it comes, so a burst of builds finishing together turns into a steady stream instead of a storm of
+ * 429 responses. The default limiter can be tuned with the
+ * {@code jenkins.plugins.slack.SlackRateLimiter.permitsPerSecond} and {@code .burst} system properties.
+ */
+public class SlackRateLimiter {
+
+    public static final SlackRateLimiter DEFAULT = new SlackRateLimiter(
+            Double.parseDouble(System.getProperty(SlackRateLimiter.class.getName() + ".permitsPerSecond", "1")),
+            Integer.getInteger(SlackRateLimiter.class.getName() + ".burst", 5));
+
+    private final double permitsPerMilli;
+    private final double burst;
+    private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<String, TokenBucket>();
+
+    /**
+     * @param permitsPerSecond sustained rate per key; zero or less disables limiting
+     * @param burst            number of posts allowed back to back before the rate applies
+     */
+    public SlackRateLimiter(double permitsPerSecond, int burst) {
+        this.permitsPerMilli = permitsPerSecond / TimeUnit.SECONDS.toMillis(1);
+        this.burst = Math.max(1, burst);
+    }
+
+    /**
+     * Blocks until a post to the given key is allowed.
+     *
+     * @return the time spent waiting, in milliseconds
+     */
+    public long acquire(String key) throws InterruptedException {
+        long wait = reserve(key);
+        if (wait > 0) {
+            Thread.sleep(wait);
+        }
+        return wait;
+    }
+
+    /**
+     * Reserves the next slot for a post to the given key without waiting for it.
+     *
+     * @return how long the caller has to wait before posting, in milliseconds
+     */
+    public long reserve(String key) {
+        if (permitsPerMilli <= 0) {
+            return 0;
+        }
+        long wait = bucket(key).reserve(System.currentTimeMillis());
+        SlackMetrics.record("ratelimit.wait.millis", wait);
+        return wait;
+    }
+
+    /**
+     * Forgets every bucket, as if no post had been made yet.
+     */
+    void reset() {
+        buckets.clear();
+    }
+
+    private TokenBucket bucket(String key) {
+        TokenBucket bucket = buckets.get(key);
+        if (bucket == null) {
+            TokenBucket created = new TokenBucket();
+            bucket = buckets.putIfAbsent(key, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        return bucket;
+    }
+
+    private final class TokenBucket {
+        private double tokens = burst;
+        private long lastRefill = System.currentTimeMillis();
+
+        /**
+         * Takes a token, going into debt if none is left.
+         *
+         * @return how long the caller has to wait before its token becomes valid
+         */
+        synchronized long reserve(long now) {
+            if (now > lastRefill) {
+                tokens = Math.min(burst, tokens + (now - lastRefill) * permitsPerMilli);
+                lastRefill = now;
+            }
+            tokens -= 1;
+            if (tokens >= 0) {
+                return 0;
+            }
+            return (long) Math.ceil(-tokens / permitsPerMilli);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package jenkins.plugins.slack;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Result;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * Per-job index of the most recent meaningful, i.e. completed and not aborted, build results.
+ * <p>
+ * Finding the result a build transitions from used to mean walking back through every aborted build, loading each
+ * one from disk. {@link SlackListener} records every completed build, so lookups are answered from memory; only a
+ * lookup reaching back past what was recorded since startup walks back, once.
+ */
+@SuppressWarnings("rawtypes")
+public final class SlackResultIndex {
+
+    /** Number of recent meaningful results kept per job. */
+    static final int HISTORY_SIZE = 8;
+
+    private static final Map<AbstractProject, History> HISTORIES = new WeakHashMap<AbstractProject, History>();
+
+    private SlackResultIndex() {
+    }
+
+    /**
+     * @return the result of the last meaningful build before {@code build}, or {@code null} if there is none
+     */
+    public static Result getPreviousResult(AbstractBuild build) {
+        Map.Entry<Integer, Result> previous = getPrevious(build);
+        return previous != null ? previous.getValue() : null;
+    }
+
+    /**
+     * @return the last meaningful build before {@code build}, or {@code null} if there is none
+     */
+    public static AbstractBuild getPreviousBuild(AbstractBuild build) {
+        Map.Entry<Integer, Result> previous = getPrevious(build);
+        return previous != null ? (AbstractBuild) build.getProject().getBuildByNumber(previous.getKey()) : null;
+    }
+
+    /**
+     * Records a completed build, starting the job's history if it has none yet.
+     */
+    static void record(AbstractBuild build) {
+        history(build.getProject(), true).add(build.getNumber(), build.getResult());
+    }
+
+    static void forget(AbstractBuild build) {
+        History history = history(build.getProject(), false);
+        if (history != null) {
+            history.remove(build.getNumber());
+        }
+    }
+
+    static void clear() {
+        synchronized (HISTORIES) {
+            HISTORIES.clear();
+        }
+    }
+
+    private static Map.Entry<Integer, Result> getPrevious(AbstractBuild build) {
+        History history = history(build.getProject(), true);
+        Map.Entry<Integer, Result> previous = history.before(build.getNumber());
+        if (previous != null || history.isComplete()) {
+            return previous;
+        }
+        // not indexed yet, walk back once and remember what we found
+        AbstractBuild<?, ?> candidate = build.getPreviousCompletedBuild();
+        while (candidate != null && candidate.getResult() == Result.ABORTED) {
+            candidate = candidate.getPreviousCompletedBuild();
+        }
+        if (candidate == null) {
+            history.markComplete();
+            return null;
+        }
+        history.add(candidate.getNumber(), candidate.getResult());
+        return history.before(build.getNumber());
+    }
+
+    private static History history(AbstractProject project, boolean create) {
+        synchronized (HISTORIES) {
+            History history = HISTORIES.get(project);
+            if (history == null && create) {
+                history = new History();
+                HISTORIES.put(project, history);
+            }
+            return history;
+        }
+    }
+
+    private static final class History {
+        private final TreeMap<Integer, Result> results = new TreeMap<Integer, Result>();
+        /** Whether the job had no meaningful build before the oldest one recorded here. */
+        private boolean complete;
+
+        synchronized void add(int number, Result result) {
+            if (result == null || result == Result.ABORTED) {
+                return;
+            }
+            results.put(number, result);
+            if (results.size() > HISTORY_SIZE) {
+                results.pollFirstEntry();
+                complete = false;
+            }
+        }
+
+        synchronized void remove(int number) {
+            results.remove(number);
+        }
+
+        synchronized Map.Entry<Integer, Result> before(int number) {
+            return results.lowerEntry(number);
+        }
+
+        synchronized boolean isComplete() {
+            return complete;
+        }
+
+        synchronized void markComplete() {
+            complete = results.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package jenkins.plugins.slack;
+
+import hudson.model.InvisibleAction;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers where the start notification of a build was posted so the final status can replace it with
+ * {@code chat.update}. Filled in asynchronously as Slack confirms each room's post.
+ */
+public class SlackStartMessageAction extends InvisibleAction {
+
+    private final Map<String, Message> messages = new HashMap<String, Message>();
+    private boolean resultPublished;
+
+    /**
+     * Records the message Slack created for a room.
+     *
+     * @param roomId  the room as configured, e.g. {@code #general}
+     * @param channel the channel ID Slack resolved the room to
+     * @param ts      the timestamp identifying the message in that channel
+     */
+    public synchronized void posted(String roomId, String channel, String ts) {
+        messages.put(roomId, new Message(channel, ts));
+    }
+
+    /**
+     * @return the start message posted to a room, or {@code null} if none is known
+     */
+    public synchronized Message get(String roomId) {
+        return messages.get(roomId);
+    }
+
+    /**
+     * Claims the start message for the build result. Both the completed and the finalized notification may report
+     * the result; only the first may replace the start message and reply in its thread.
+     *
+     * @return {@code true} the first time, {@code false} once the result was published
+     */
+    public synchronized boolean markResultPublished() {
+        if (resultPublished) {
+            return false;
+        }
+        resultPublished = true;
+        return true;
+    }
+
+    public static final class Message {
+        private final String channel;
+        private final String ts;
+
+        public Message(String channel, String ts) {
+            this.channel = channel;
+            this.ts = ts;
+        }
+
+        public String getChannel() {
+            return channel;
+        }
+
+        public String getTs() {
+            return ts;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package jenkins.plugins.slack;
+
+import hudson.model.AbstractBuild;
+import hudson.model.InvisibleAction;
+import hudson.tasks.junit.TestResultAction;
+import hudson.tasks.test.TestResult;
+import org.apache.commons.codec.binary.Base64;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact summary of a build's failed tests: their number and the sorted, distinct 64-bit hashes of their IDs.
+ * <p>
+ * Attached when a build completes so that regression detection for the next build compares two fingerprints
+ * instead of loading both test reports. The hashes are stored Base64-encoded to keep {@code build.xml} small.
+ */
+@SuppressWarnings("rawtypes")
+public class SlackTestFingerprintAction extends InvisibleAction {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int failCount;
+    private final String hashes;
+
+    SlackTestFingerprintAction(int failCount, long[] hashes) {
+        this.failCount = failCount;
+        ByteBuffer bytes = ByteBuffer.allocate(hashes.length * 8);
+        for (long hash : hashes) {
+            bytes.putLong(hash);
+        }
+        this.hashes = Base64.encodeBase64String(bytes.array());
+    }
+
+    /**
+     * Fingerprints the build's test results and attaches the fingerprint. The build is saved by Jenkins once the
+     * completion listeners have run.
+     */
+    public static void attach(AbstractBuild build) {
+        if (build.getAction(SlackTestFingerprintAction.class) == null) {
+            SlackTestFingerprintAction fingerprint = compute(build);
+            if (fingerprint != null) {
+                build.addAction(fingerprint);
+            }
+        }
+    }
+
+    /**
+     * @return the fingerprint attached to the build, computed from its test report if there is none, or {@code null}
+     * if the build has no test results
+     */
+    public static SlackTestFingerprintAction of(AbstractBuild build) {
+        SlackTestFingerprintAction fingerprint = build.getAction(SlackTestFingerprintAction.class);
+        return fingerprint != null ? fingerprint : compute(build);
+    }
+
+    private static SlackTestFingerprintAction compute(AbstractBuild build) {
+        TestResultAction tests = build.getAction(TestResultAction.class);
+        if (tests == null) {
+            return null;
+        }
+        List<? extends TestResult> failed = tests.getFailedTests();
+        long[] hashes = new long[failed.size()];
+        int i = 0;
+        for (TestResult result : failed) {
+            hashes[i++] = hash(result.getId());
+        }
+        Arrays.sort(hashes);
+        return new SlackTestFingerprintAction(tests.getFailCount(), distinct(hashes));
+    }
+
+    public int getFailCount() {
+        return failCount;
+    }
+
+    long[] getHashes() {
+        ByteBuffer bytes = ByteBuffer.wrap(Base64.decodeBase64(hashes));
+        long[] decoded = new long[bytes.remaining() / 8];
+        for (int i = 0; i < decoded.length; i++) {
+            decoded[i] = bytes.getLong();
+        }
+        return decoded;
+    }
+
+    /**
+     * A build regressed if more tests fail than before, or if a different set of tests fails.
+     */
+    public boolean isRegressionFrom(SlackTestFingerprintAction previous) {
+        if (failCount > previous.failCount) {
+            return true;
+        }
+        return !hashes.equals(previous.hashes);
+    }
+
+    /**
+     * 64-bit FNV-1a hash of a test ID.
+     */
+    static long hash(String id) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static long[] distinct(long[] sorted) {
+        int n = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[n++] = sorted[i];
+            }
+        }
+        return n == sorted.length ? sorted : Arrays.copyOf(sorted, n);
+    }
+}
@@ -1,58 +1,88 @@
 package jenkins.plugins.slack;
 
-import hudson.security.ACL;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import hudson.util.Secret;
 
 import net.sf.json.JSONArray;
+import net.sf.json.JSONException;
 import net.sf.json.JSONObject;
 
 import org.jenkinsci.plugins.plaincredentials.StringCredentials;
 
-import com.cloudbees.plugins.credentials.CredentialsMatcher;
-import com.cloudbees.plugins.credentials.CredentialsMatchers;
-import com.cloudbees.plugins.credentials.domains.DomainRequirement;
-
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
-import java.util.Collections;
+import java.io.IOException;
+import java.util.Date;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
-import jenkins.model.Jenkins;
-import hudson.ProxyConfiguration;
+import jenkins.util.Timer;
 
 import org.apache.commons.lang.StringUtils;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.CredentialsProvider;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.utils.DateUtils;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.conn.routing.HttpRoutePlanner;
-import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.conn.DefaultProxyRoutePlanner;
-import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.util.EntityUtils;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
-import org.apache.http.NameValuePair;
 
 public class StandardSlackService implements SlackService {
 
     private static final Logger logger = Logger.getLogger(StandardSlackService.class.getName());
 
+    /** Upper bound on concurrent room posts per workspace, tunable with a system property. */
+    static final int MAX_PARALLEL_POSTS_PER_WORKSPACE =
+            Math.max(1, Integer.getInteger(StandardSlackService.class.getName() + ".maxParallelPostsPerWorkspace", 4));
+
+    static final String CHAT_POST_MESSAGE_URL = "https://slack.com/api/chat.postMessage";
+    static final String CHAT_UPDATE_URL = "https://slack.com/api/chat.update";
+
+    /** Threads and queued posts of the fan-out pool shared by all workspaces, tunable with system properties. */
+    static final int FAN_OUT_THREADS =
+            Math.max(1, Integer.getInteger(StandardSlackService.class.getName() + ".fanOutThreads", 8));
+    static final int FAN_OUT_QUEUE_SIZE =
+            Math.max(1, Integer.getInteger(StandardSlackService.class.getName() + ".fanOutQueueSize", 1000));
+
+    /** Longest {@link #publishAndWait} waits for retries, tunable with a system property. */
+    static final long PUBLISH_WAIT_SECONDS =
+            Long.getLong(StandardSlackService.class.getName() + ".publishWaitSeconds", 120L);
+
+    private static final ExecutorService FAN_OUT = newFanOutPool();
+
+    private static final ConcurrentMap<String, Semaphore> WORKSPACE_PERMITS = new ConcurrentHashMap<String, Semaphore>();
+
     private String host = "slack.com";
     private String baseUrl;
     private String teamDomain;
-    private String token;
+    /** Kept encrypted, this service is written to disk when the notification queue spills. */
+    private Secret token;
     private String authTokenCredentialId;
     private boolean botUser;
     private String[] roomIds;
+    private transient RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+    private transient SlackRateLimiter rateLimiter = SlackRateLimiter.DEFAULT;
+    private transient Clock clock = Clock.SYSTEM;
+    private transient ExecutorService fanOut = FAN_OUT;
+    /** Schedules retries, the Jenkins timer unless set. */
+    private transient ScheduledExecutorService scheduler;
 
     public StandardSlackService(String baseUrl, String teamDomain, String token, String authTokenCredentialId, boolean botUser, String roomId) {
         super();
@@ -61,7 +91,7 @@ public class StandardSlackService implements SlackService {
             this.baseUrl += "/";
         }
         this.teamDomain = teamDomain;
-        this.token = token;
+        this.token = token != null ? Secret.fromString(token) : null;
         this.authTokenCredentialId = StringUtils.trim(authTokenCredentialId);
         this.botUser = botUser;
         this.roomIds = roomId.split("[,; ]+");
@@ -71,93 +101,615 @@ public class StandardSlackService implements SlackService {
         return publish(message, "warning");
     }
 
+    /**
+     * Posts to every room without waiting for retries.
+     *
+     * @return whether the first attempt succeeded in every room. Posts whose first attempt failed for a transient
+     * reason, or was held back by the rate limiter, keep going in the background and may still be delivered; use
+     * {@link #publishAndWait(String, String)} when the final outcome matters.
+     */
     public boolean publish(String message, String color) {
-        //prepare attachments first
-        JSONObject field = new JSONObject();
-        field.put("short", false);
-        field.put("value", message);
+        return publish(SlackPayload.forMessage(message, color), color);
+    }
+
+    /**
+     * Posts attachments given as json-lib objects, such as those of a {@code slackSend} step. Notifications are
+     * rendered as a {@link SlackPayload} instead. The result means the same as for {@link #publish(String, String)}.
+     */
+    @Override
+    public boolean publish(JSONArray attachments, String color) {
+        return publish(new SlackPayload(attachments.toString()), color);
+    }
 
-        JSONArray fields = new JSONArray();
-        fields.add(field);
+    /**
+     * Posts to every room and waits, for at most {@link #PUBLISH_WAIT_SECONDS}, until each post was delivered or
+     * given up, retries included. For callers acting on the result, such as a step failing the build.
+     *
+     * @return whether every room's post was delivered
+     */
+    public boolean publishAndWait(String message, String color) {
+        SlackPayload attachments = SlackPayload.forMessage(message, color);
+        return publish(attachments, null, color, null, false, getTokenToUse(), true);
+    }
 
-        JSONObject attachment = new JSONObject();
-        attachment.put("fallback", message);
-        attachment.put("color", color);
-        attachment.put("fields", fields);
-        JSONArray mrkdwn = new JSONArray();
-        mrkdwn.add("pretext");
-        mrkdwn.add("text");
-        mrkdwn.add("fields");
-        attachment.put("mrkdwn_in", mrkdwn);
-        JSONArray attachments = new JSONArray();
-        attachments.add(attachment);
+    /**
+     * Posts attachments given as json-lib objects like {@link #publish(JSONArray, String)}, waiting for the final
+     * outcome like {@link #publishAndWait(String, String)}.
+     */
+    public boolean publishAndWait(JSONArray attachments, String color) {
+        return publish(new SlackPayload(attachments.toString()), null, color, null, false, getTokenToUse(), true);
+    }
 
-        return publish(attachments, color);
+    /**
+     * Posts a build's start notification and records each room's message in the action so it can be
+     * {@link #update updated} later. Only messages sent through the Web API can be updated.
+     */
+    boolean publishStart(SlackPayload attachments, String color, SlackStartMessageAction startMessage) {
+        return publish(attachments, null, color, startMessage, false);
     }
 
-    @Override
-    public boolean publish(JSONArray attachments, String color) {
-        boolean result = true;
+    /**
+     * Replaces the start notification recorded in the action with {@code chat.update}. Rooms whose start message is
+     * unknown, e.g. because its post failed, get a new message instead.
+     *
+     * @param replies attachments posted as a thread reply to the updated message, or {@code null}
+     */
+    boolean update(SlackPayload attachments, SlackPayload replies, String color, SlackStartMessageAction startMessage) {
+        return publish(attachments, replies, color, startMessage, true);
+    }
+
+    /**
+     * Posts a message and, once each room's post succeeded, the replies as a reply in its thread. Outside the Web API
+     * the replies are sent as a separate message.
+     */
+    boolean publishThread(SlackPayload attachments, SlackPayload replies, String color) {
+        return publish(attachments, replies, color, null, false);
+    }
+
+    /**
+     * Whether messages go through the Web API as a bot user, which allows them to be updated later.
+     */
+    public boolean usesWebApi() {
+        return botUser && StringUtils.isEmpty(baseUrl);
+    }
+
+    /**
+     * Posts attachments rendered by {@link SlackPayload} without serializing them again.
+     */
+    boolean publish(SlackPayload attachments, String color) {
+        return publish(attachments, null, color, null, false);
+    }
+
+    private boolean publish(SlackPayload attachments, SlackPayload replies, String color,
+                            SlackStartMessageAction startMessage, boolean update) {
+        if (replies != null && !usesWebApi()) {
+            // webhooks cannot reply in threads
+            return publish(attachments, color, startMessage, update) & publish(replies, color);
+        }
+        return publish(attachments, replies, color, startMessage, update, getTokenToUse(), false);
+    }
+
+    private boolean publish(SlackPayload attachments, String color, SlackStartMessageAction startMessage, boolean update) {
+        return publish(attachments, null, color, startMessage, update, getTokenToUse(), false);
+    }
+
+    /**
+     * @param wait whether to wait for posts whose first attempt did not succeed to be delivered or given up
+     */
+    private boolean publish(SlackPayload attachments, SlackPayload replies, String color,
+                            SlackStartMessageAction startMessage, boolean update, String tokenToUse, boolean wait) {
+        // the token is resolved once, every room of this publish uses the same one
+        List<RoomPost> roomPosts = new ArrayList<RoomPost>(roomIds.length);
         for (String roomId : roomIds) {
-                        HttpPost post;
-            String url;
-            List<NameValuePair> nvps = new ArrayList<NameValuePair>();
-            //prepare post methods for both requests types
-            if (!botUser || !StringUtils.isEmpty(baseUrl)) {
-                url = "https://" + teamDomain + "." + host + "/services/hooks/jenkins-ci?token=" + getTokenToUse();
-                if (!StringUtils.isEmpty(baseUrl)) {
-                    url = baseUrl + getTokenToUse();
+            roomPosts.add(newRoomPost(roomId, attachments, replies, color, tokenToUse, startMessage, update));
+        }
+        boolean result = true;
+        try {
+            if (roomPosts.size() == 1) {
+                // nothing to fan out, post from the calling thread
+                result = new PermittedRoomPost(roomPosts.get(0)).call();
+            } else {
+                List<Future<Boolean>> posts = new ArrayList<Future<Boolean>>(roomPosts.size());
+                for (RoomPost roomPost : roomPosts) {
+                    posts.add(submit(roomPost));
                 }
-                post = new HttpPost(url);
-                JSONObject json = new JSONObject();
+                for (Future<Boolean> post : posts) {
+                    result &= post.get();
+                }
+            }
+            if (!result && wait) {
+                result = awaitOutcome(roomPosts);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.log(Level.WARNING, "Interrupted while posting to Slack", e);
+            result = false;
+        } catch (ExecutionException e) {
+            logger.log(Level.WARNING, "Error posting to Slack", e.getCause());
+            result = false;
+        }
+        return result;
+    }
 
-                json.put("channel", roomId);
-                json.put("attachments", attachments);
-                json.put("link_names", "1");
+    private boolean awaitOutcome(List<RoomPost> roomPosts) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(PUBLISH_WAIT_SECONDS);
+        boolean delivered = true;
+        for (RoomPost roomPost : roomPosts) {
+            if (!roomPost.awaitOutcome(deadline - System.currentTimeMillis())) {
+                logger.warning("Post to " + roomPost.roomId + " on " + teamDomain + " was not delivered in time");
+                delivered = false;
+            }
+        }
+        return delivered;
+    }
 
-                nvps.add(new BasicNameValuePair("payload", json.toString()));
+    private RoomPost newRoomPost(String roomId, SlackPayload attachments, SlackPayload replies, String color,
+                                 String tokenToUse, SlackStartMessageAction startMessage, boolean update) {
+        RoomPost roomPost = new RoomPost(roomId, attachments, color, tokenToUse);
+        if (replies != null) {
+            roomPost.reply = new RoomPost(roomId, replies, color, tokenToUse);
+        }
+        if (startMessage != null && usesWebApi()) {
+            if (!update) {
+                roomPost.startMessage = startMessage;
             } else {
-                url = "https://slack.com/api/chat.postMessage?token=" + getTokenToUse() +
-                        "&channel=" + roomId +
-                        "&link_names=1" +
-                        "&as_user=true";
-                try {
-                    url += "&attachments=" + URLEncoder.encode(attachments.toString(), "utf-8");
-                } catch (UnsupportedEncodingException e) {
-                    logger.log(Level.ALL, "Error while encoding attachments: " + e.getMessage());
+                SlackStartMessageAction.Message message = startMessage.get(roomId);
+                if (message != null) {
+                    roomPost.updateChannel = message.getChannel();
+                    roomPost.updateTs = message.getTs();
                 }
-                post = new HttpPost(url);
             }
-            logger.fine("Posting: to " + roomId + " on " + teamDomain + " using " + url + ": " + attachments.toString() + " " + color);
-            CloseableHttpClient client = getHttpClient();
+        }
+        return roomPost;
+    }
 
-            try {
-            	post.setEntity(new UrlEncodedFormEntity(nvps, "UTF-8"));
-            	CloseableHttpResponse response = client.execute(post);
-            	
-            	int responseCode = response.getStatusLine().getStatusCode();
-            	if(responseCode != HttpStatus.SC_OK) {
-            		 HttpEntity entity = response.getEntity();
-            		 String responseString = EntityUtils.toString(entity);
-            		 logger.log(Level.WARNING, "Slack post may have failed. Response: " + responseString);
-            		 logger.log(Level.WARNING, "Response Code: " + responseCode);
-            		 result = false;
-                } else {
-                    logger.info("Posting succeeded");
+    /**
+     * Makes one attempt at posting to a room. Transient failures are retried later from the Jenkins timer
+     * according to the {@link RetryPolicy}, so the calling thread never sleeps; the result only reflects this
+     * attempt. Interrupted attempts are not counted against the circuit breaker.
+     */
+    boolean post(RoomPost roomPost) {
+        String roomId = roomPost.roomId;
+        SlackPayload attachments = roomPost.attachments;
+        String color = roomPost.color;
+        String tokenToUse = roomPost.token;
+        HttpPost post;
+        String url;
+        //prepare post methods for both requests types
+        if (!botUser || !StringUtils.isEmpty(baseUrl)) {
+            url = "https://" + teamDomain + "." + host + "/services/hooks/jenkins-ci?token=" + tokenToUse;
+            if (!StringUtils.isEmpty(baseUrl)) {
+                url = baseUrl + tokenToUse;
+            }
+            post = new HttpPost(url);
+            post.setEntity(attachments.toWebhookEntity(roomId));
+        } else if (roomPost.updateTs != null) {
+            url = CHAT_UPDATE_URL;
+            post = new HttpPost(url);
+            post.setHeader("Authorization", "Bearer " + tokenToUse);
+            post.setEntity(attachments.toChatUpdateEntity(roomPost.updateChannel, roomPost.updateTs));
+        } else {
+            // the token goes into a header and the message into the body, so neither is limited by URL length
+            url = CHAT_POST_MESSAGE_URL;
+            post = new HttpPost(url);
+            post.setHeader("Authorization", "Bearer " + tokenToUse);
+            if (roomPost.threadTs != null) {
+                post.setEntity(attachments.toChatPostMessageEntity(roomPost.threadChannel, roomPost.threadTs));
+            } else {
+                post.setEntity(attachments.toChatPostMessageEntity(roomId));
+            }
+        }
+        logger.fine("Posting: to " + roomId + " on " + teamDomain + " using " + url + ": " + attachments + " " + color);
+        CloseableHttpClient client = getHttpClient();
+
+        recordInOutbox(roomPost);
+        roomPost.attempts++;
+        SlackMetrics.count("post.attempts");
+        SlackCircuitBreaker breaker = getCircuitBreaker(url);
+        if (!breaker.allowRequest(clock.currentTimeMillis())) {
+            // Slack is known to be down, queue the post behind the breaker instead of waiting on a timeout
+            SlackMetrics.count("post.short-circuited");
+            long untilProbe = breaker.millisUntilProbe(clock.currentTimeMillis());
+            scheduleRetry(roomPost, RetryPolicy.NO_RESPONSE, untilProbe > 0 ? untilProbe : -1);
+            return false;
+        }
+        int responseCode = RetryPolicy.NO_RESPONSE;
+        long retryAfterMillis = -1;
+        CloseableHttpResponse response = null;
+        try {
+            response = client.execute(post);
+
+            responseCode = response.getStatusLine().getStatusCode();
+            HttpEntity entity = response.getEntity();
+            if(responseCode != HttpStatus.SC_OK) {
+                retryAfterMillis = getRetryAfterMillis(response);
+                String responseString = entity != null ? EntityUtils.toString(entity) : "";
+                logger.log(Level.WARNING, "Slack post may have failed. Response: " + responseString);
+                logger.log(Level.WARNING, "Response Code: " + responseCode);
+            } else if (!isAccepted(roomPost, entity)) {
+                // the Web API reports errors such as an unknown channel in a 200 response
+                logger.log(Level.WARNING, "Slack rejected the post to " + roomId);
+            } else {
+                logger.info("Posting succeeded");
+                SlackMetrics.count("post.success");
+                breaker.recordSuccess();
+                if (roomPost.attempts > 1) {
+                    SlackMetrics.record("post.retry.recovered.attempts", roomPost.attempts);
+                }
+                boolean replying = roomPost.reply != null && roomPost.reply.threadTs != null;
+                if (replying) {
+                    // the reply goes into the outbox before this post leaves it, so a restart cannot lose it
+                    recordInOutbox(roomPost.reply);
                 }
-            } catch (Exception e) {
-                logger.log(Level.WARNING, "Error posting to Slack", e);
-                result = false;
+                acknowledge(roomPost);
+                roomPost.finish(true);
+                if (replying) {
+                    dispatch(roomPost.reply);
+                }
+                return true;
+            }
+        } catch (Exception e) {
+            if (Thread.currentThread().isInterrupted()) {
+                // Jenkins is shutting down rather than Slack failing, leave the post for the next redelivery
+                logger.log(Level.WARNING, "Interrupted while posting to Slack", e);
+                park(roomPost);
+                return false;
+            }
+            logger.log(Level.WARNING, "Error posting to Slack", e);
+        } finally {
+            closeQuietly(response);
+        }
+        // any other answer, including a 429, proves the endpoint is up
+        if (responseCode == RetryPolicy.NO_RESPONSE || responseCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+            breaker.recordFailure(clock.currentTimeMillis());
+        } else {
+            breaker.recordSuccess();
+        }
+        SlackMetrics.count("post.failure");
+        scheduleRetry(roomPost, responseCode, retryAfterMillis);
+        return false;
+    }
+
+    private void scheduleRetry(final RoomPost roomPost, int responseCode, long retryAfterMillis) {
+        if (!retryPolicy.shouldRetry(roomPost.attempts, responseCode)) {
+            if (retryPolicy.isRetryable(responseCode)) {
+                logger.warning("Giving up posting to " + roomPost.roomId + " on " + teamDomain + " after "
+                        + roomPost.attempts + " attempts");
+                SlackMetrics.count("post.retry.exhausted");
+                park(roomPost);
+            } else {
+                // Slack rejected the post for good, resending it after a restart would not help
+                acknowledge(roomPost);
+                roomPost.finish(false);
+            }
+            return;
+        }
+        long delay = retryPolicy.delayMillis(roomPost.attempts, retryAfterMillis);
+        logger.info("Retrying post to " + roomPost.roomId + " on " + teamDomain + " in " + delay + "ms (attempt "
+                + (roomPost.attempts + 1) + " of " + retryPolicy.getMaxAttempts() + ")");
+        SlackMetrics.count("post.retry.scheduled");
+        schedule(roomPost, delay);
+    }
+
+    /**
+     * Dispatches the post again after a delay. Timer threads hand it over to the fan-out pool right away, so they
+     * never wait on a workspace permit or Slack.
+     */
+    private void schedule(final RoomPost roomPost, long delayMillis) {
+        ScheduledExecutorService timer = scheduler != null ? scheduler : Timer.get();
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                dispatch(roomPost);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Posts in the fan-out pool for a caller waiting on the result. When the pool is saturated the post is made on
+     * the calling thread instead, which slows down the caller rather than queueing without bound.
+     */
+    private Future<Boolean> submit(RoomPost roomPost) {
+        PermittedRoomPost post = new PermittedRoomPost(roomPost);
+        try {
+            return fanOut.submit(post);
+        } catch (RejectedExecutionException e) {
+            FutureTask<Boolean> inline = new FutureTask<Boolean>(post);
+            inline.run();
+            return inline;
+        }
+    }
+
+    /**
+     * Posts in the fan-out pool without anybody waiting on the result, as retries, thread replies and redeliveries
+     * do. When the pool is saturated the post is left in the {@link SlackOutbox} for the next redelivery round.
+     */
+    private void dispatch(RoomPost roomPost) {
+        try {
+            fanOut.submit(new PermittedRoomPost(roomPost));
+        } catch (RejectedExecutionException e) {
+            logger.warning("Too many Slack posts in flight, leaving the post to " + roomPost.roomId
+                    + " for the next redelivery");
+            SlackMetrics.count("post.fan-out.rejected");
+            park(roomPost);
+        }
+    }
+
+    /**
+     * Writes the post to the {@link SlackOutbox} before its first attempt so it survives a restart. A thread reply
+     * that has no parent message yet is written along with its parent and redelivered with it.
+     */
+    private void recordInOutbox(RoomPost roomPost) {
+        SlackOutbox outbox = SlackOutbox.get();
+        if (outbox == null || roomPost.outboxId != null) {
+            return;
+        }
+        String replies = roomPost.reply != null ? roomPost.reply.attachments.getAttachments() : null;
+        try {
+            roomPost.outboxId = outbox.append(new SlackOutbox.Entry(baseUrl, teamDomain, getToken(), authTokenCredentialId,
+                    botUser, roomPost.roomId, roomPost.attachments.getAttachments(), roomPost.color)
+                    .replacing(roomPost.updateChannel, roomPost.updateTs)
+                    .inThread(roomPost.threadChannel, roomPost.threadTs)
+                    .withReplies(replies));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not write Slack post to the outbox", e);
+        }
+    }
+
+    private void acknowledge(RoomPost roomPost) {
+        SlackOutbox outbox = SlackOutbox.get();
+        if (outbox != null && roomPost.outboxId != null) {
+            outbox.ack(roomPost.outboxId);
+        }
+    }
+
+    /**
+     * Leaves the post to the next redelivery round, which sends it as a new post.
+     */
+    private void park(RoomPost roomPost) {
+        SlackOutbox outbox = SlackOutbox.get();
+        if (outbox != null && roomPost.outboxId != null) {
+            outbox.park(roomPost.outboxId);
+        }
+        roomPost.finish(false);
+    }
+
+    /**
+     * Resends a post restored from the {@link SlackOutbox}. This service must target exactly that post's room.
+     *
+     * @param replies attachments to reply with in the thread of the post once it succeeded, or {@code null}
+     */
+    void redeliver(String outboxId, String attachments, String color, String updateChannel, String updateTs,
+                   String threadChannel, String threadTs, String replies) {
+        String tokenToUse = getTokenToUse();
+        RoomPost roomPost = new RoomPost(roomIds[0], new SlackPayload(attachments), color, tokenToUse);
+        roomPost.outboxId = outboxId;
+        roomPost.updateChannel = updateChannel;
+        roomPost.updateTs = updateTs;
+        roomPost.threadChannel = threadChannel;
+        roomPost.threadTs = threadTs;
+        if (replies != null) {
+            roomPost.reply = new RoomPost(roomIds[0], new SlackPayload(replies), color, tokenToUse);
+        }
+        dispatch(roomPost);
+    }
+
+    /**
+     * Reads the response body, which also lets the pooled connection be kept alive. Web API responses are JSON
+     * objects with an {@code ok} flag and, for new messages, the channel and timestamp identifying the message;
+     * webhook responses are plain text.
+     */
+    private boolean isAccepted(RoomPost roomPost, HttpEntity entity) throws IOException {
+        if (entity == null) {
+            return true;
+        }
+        String body = EntityUtils.toString(entity);
+        if (!StringUtils.startsWith(body, "{")) {
+            return true;
+        }
+        try {
+            JSONObject json = JSONObject.fromObject(body);
+            if (!json.optBoolean("ok", true)) {
+                logger.warning("Slack error: " + json.optString("error"));
+                return false;
+            }
+            if (roomPost.startMessage != null && json.has("ts")) {
+                roomPost.startMessage.posted(roomPost.roomId, json.optString("channel"), json.getString("ts"));
+            }
+            if (roomPost.reply != null && json.has("ts")) {
+                roomPost.reply.threadChannel = json.optString("channel", roomPost.roomId);
+                roomPost.reply.threadTs = json.getString("ts");
+            }
+        } catch (JSONException e) {
+            logger.log(Level.FINE, "Unexpected Slack response: " + body, e);
+        }
+        return true;
+    }
+
+    SlackCircuitBreaker getCircuitBreaker() {
+        return getCircuitBreaker(CHAT_POST_MESSAGE_URL);
+    }
+
+    /**
+     * Webhook posts and each Web API method used by bot user posts are guarded by their own breaker, so failing
+     * {@code chat.update} calls do not stop new messages. Webhook breakers are keyed without the token.
+     *
+     * @param url the URL the post goes to
+     */
+    SlackCircuitBreaker getCircuitBreaker(String url) {
+        String endpoint;
+        if (!botUser || !StringUtils.isEmpty(baseUrl)) {
+            endpoint = StringUtils.isEmpty(baseUrl)
+                    ? "https://" + teamDomain + "." + host + "/services/hooks/jenkins-ci"
+                    : baseUrl;
+        } else {
+            endpoint = url;
+        }
+        return SlackCircuitBreaker.forEndpoint(endpoint);
+    }
+
+    /**
+     * Rate limits apply per workspace, identified by its endpoint and credentials, and channel.
+     */
+    private String getRateLimitKey(String roomId) {
+        return getWorkspaceKey() + "|" + roomId;
+    }
+
+    /**
+     * Notifications are batched by {@link SlackDigest} per workspace, posting mode and set of rooms.
+     */
+    String getDigestKey() {
+        return getWorkspaceKey() + "|" + botUser + "|" + StringUtils.join(roomIds, ",");
+    }
+
+    private String getWorkspaceKey() {
+        String workspace = StringUtils.isEmpty(baseUrl) ? teamDomain : baseUrl;
+        String credentials = StringUtils.isEmpty(authTokenCredentialId)
+                ? Integer.toHexString(StringUtils.defaultString(getToken()).hashCode())
+                : authTokenCredentialId;
+        return workspace + "|" + credentials;
+    }
+
+    /**
+     * Reads the {@code Retry-After} header, which Slack sends with 429 responses, in either of its
+     * delta-seconds or HTTP-date forms.
+     *
+     * @return the requested delay in milliseconds, or -1 if there is none
+     */
+    static long getRetryAfterMillis(HttpResponse response) {
+        Header header = response.getFirstHeader("Retry-After");
+        if (header == null || StringUtils.isBlank(header.getValue())) {
+            return -1;
+        }
+        String value = header.getValue().trim();
+        if (StringUtils.isNumeric(value)) {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(value));
+        }
+        Date date = DateUtils.parseDate(value);
+        if (date == null) {
+            return -1;
+        }
+        return Math.max(0, date.getTime() - System.currentTimeMillis());
+    }
+
+    /**
+     * Limits how many rooms of a single workspace are posted to concurrently.
+     */
+    private Semaphore workspacePermits() {
+        String workspace = StringUtils.isEmpty(baseUrl) ? teamDomain : baseUrl;
+        Semaphore permits = WORKSPACE_PERMITS.get(workspace);
+        if (permits == null) {
+            Semaphore created = new Semaphore(MAX_PARALLEL_POSTS_PER_WORKSPACE);
+            permits = WORKSPACE_PERMITS.putIfAbsent(workspace, created);
+            if (permits == null) {
+                permits = created;
+            }
+        }
+        return permits;
+    }
+
+    private static ExecutorService newFanOutPool() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(FAN_OUT_THREADS, FAN_OUT_THREADS, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(FAN_OUT_QUEUE_SIZE),
+                new NamingThreadFactory(new DaemonThreadFactory(), "Slack room fan-out"));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Callable posting to one room while holding a workspace permit. Every post goes through here, first attempts as
+     * well as retries, thread replies and redeliveries.
+     * <p>
+     * Each attempt first reserves a slot with the {@link SlackRateLimiter}. If the slot lies in the future, the post is
+     * scheduled for it instead of waiting, so a busy channel holds neither a permit nor a thread that posts to other
+     * channels of the workspace could use.
+     */
+    private final class PermittedRoomPost implements Callable<Boolean> {
+        private final RoomPost roomPost;
+
+        PermittedRoomPost(RoomPost roomPost) {
+            this.roomPost = roomPost;
+        }
+
+        @Override
+        public Boolean call() throws InterruptedException {
+            if (!roomPost.slotReserved) {
+                long wait = rateLimiter.reserve(getRateLimitKey(roomPost.roomId));
+                if (wait > 0) {
+                    roomPost.slotReserved = true;
+                    recordInOutbox(roomPost);
+                    SlackMetrics.count("post.rate-limited");
+                    schedule(roomPost, wait);
+                    return false;
+                }
+            }
+            // this attempt uses up the slot, the next one reserves its own
+            roomPost.slotReserved = false;
+            Semaphore permits = workspacePermits();
+            permits.acquire();
+            try {
+                return post(roomPost);
             } finally {
-                post.releaseConnection();
+                permits.release();
             }
         }
-        return result;
+    }
+
+    /**
+     * A message for a single room together with its retry state.
+     */
+    final class RoomPost {
+        private final String roomId;
+        private final SlackPayload attachments;
+        private final String color;
+        private final String token;
+        private int attempts;
+        private String outboxId;
+        /** Set while the post waits for the rate limit slot reserved for its next attempt. */
+        private volatile boolean slotReserved;
+        /** Set for start notifications whose message is remembered for a later update. */
+        private SlackStartMessageAction startMessage;
+        /** Set when this post replaces an existing message instead of creating one. */
+        private String updateChannel;
+        private String updateTs;
+        /** Sent as a reply in this post's thread once this post succeeded. */
+        private RoomPost reply;
+        /** Set when this post is a reply in the thread of another message. */
+        private String threadChannel;
+        private String threadTs;
+        /** Counted down once the post was delivered or given up. */
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile boolean delivered;
+
+        RoomPost(String roomId, SlackPayload attachments, String color, String token) {
+            this.roomId = roomId;
+            this.attachments = attachments;
+            this.color = color;
+            this.token = token;
+        }
+
+        int getAttempts() {
+            return attempts;
+        }
+
+        void finish(boolean delivered) {
+            if (done.getCount() > 0) {
+                this.delivered = delivered;
+                done.countDown();
+            }
+        }
+
+        /**
+         * @return whether the post was delivered within the timeout
+         */
+        boolean awaitOutcome(long timeoutMillis) throws InterruptedException {
+            return done.await(Math.max(0, timeoutMillis), TimeUnit.MILLISECONDS) && delivered;
+        }
     }
 
     private String getTokenToUse() {
         if (authTokenCredentialId != null && !authTokenCredentialId.isEmpty()) {
-            StringCredentials credentials = lookupCredentials(authTokenCredentialId);
+            StringCredentials credentials = SlackCredentialCache.lookup(authTokenCredentialId);
             if (credentials != null) {
                 logger.fine("Using Integration Token Credential ID.");
                 return credentials.getSecret().getPlainText();
@@ -166,41 +718,70 @@ public class StandardSlackService implements SlackService {
 
         logger.fine("Using Integration Token.");
 
-        return token;
+        return getToken();
     }
 
-    private StringCredentials lookupCredentials(String credentialId) {
-        List<StringCredentials> credentials = com.cloudbees.plugins.credentials.CredentialsProvider.lookupCredentials(StringCredentials.class, Jenkins.getInstance(), ACL.SYSTEM, Collections.<DomainRequirement>emptyList());
-        CredentialsMatcher matcher = CredentialsMatchers.withId(credentialId);
-        return CredentialsMatchers.firstOrNull(credentials, matcher);
+    private String getToken() {
+        return token != null ? token.getPlainText() : null;
     }
 
     protected CloseableHttpClient getHttpClient() {
-    	final HttpClientBuilder clientBuilder = HttpClients.custom();
-    	final CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
-    	clientBuilder.setDefaultCredentialsProvider(credentialsProvider);
-    	
-        if (Jenkins.getInstance() != null) {
-            ProxyConfiguration proxy = Jenkins.getInstance().proxy;
-            if (proxy != null) {
-                final HttpHost proxyHost = new HttpHost(proxy.name, proxy.port);
-                final HttpRoutePlanner routePlanner = new DefaultProxyRoutePlanner(proxyHost);
-                clientBuilder.setRoutePlanner(routePlanner);                
-
-                String username = proxy.getUserName();
-                String password = proxy.getPassword();
-                // Consider it to be passed if username specified. Sufficient?
-                if (username != null && !"".equals(username.trim())) {
-                    logger.info("Using proxy authentication (user=" + username + ")");
-                    credentialsProvider.setCredentials(new AuthScope(proxyHost), 
-                    								   new UsernamePasswordCredentials(username, password));
-                }
+        return SharedHttpClient.get();
+    }
+
+    private void closeQuietly(CloseableHttpResponse response) {
+        if (response != null) {
+            try {
+                response.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Error closing Slack response", e);
             }
         }
-        return clientBuilder.build();
     }
 
     void setHost(String host) {
         this.host = host;
     }
+
+    void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    void setRateLimiter(SlackRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    void setFanOut(ExecutorService fanOut) {
+        this.fanOut = fanOut;
+    }
+
+    void setScheduler(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    private Object readResolve() {
+        retryPolicy = RetryPolicy.DEFAULT;
+        rateLimiter = SlackRateLimiter.DEFAULT;
+        clock = Clock.SYSTEM;
+        fanOut = FAN_OUT;
+        return this;
+    }
+
+    /**
+     * Source of the current time for circuit breaker decisions.
+     */
+    interface Clock {
+        Clock SYSTEM = new Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return System.currentTimeMillis();
+            }
+        };
+
+        long currentTimeMillis();
+    }
 }
@@ -3,52 +3,83 @@ package jenkins.plugins.slack.webhook;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.HashMap;
+
+import java.util.concurrent.TimeUnit;
 
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 
+import org.apache.commons.lang.StringUtils;
+
+import jenkins.plugins.slack.SlackMetrics;
+
+import jenkins.plugins.slack.webhook.model.SlackPostData;
+
 import jenkins.plugins.slack.webhook.exception.CommandRouterException;
 import jenkins.plugins.slack.webhook.exception.RouteNotFoundException;
 
 
 
 
+/**
+ * Routes commands to the {@link RouterCommand} whose regex matches them.
+ *
+ * Routes are indexed in a trie by the literal words their command starts
+ * with, e.g. {@code list projects} or {@code run}, so a command only runs
+ * the regexes of the routes sharing its first words instead of every regex.
+ * Routes are meant to be registered once and then shared by all requests.
+ *
+ * The time each command takes is recorded in {@link SlackMetrics} as
+ * {@code webhook.<keywords>.millis}, e.g. {@code webhook.list-projects.millis}.
+ */
 public class CommandRouter<T> {
 
     public CommandRouter() { }
 
-    public List<Route<T>> routes = new ArrayList<Route<T>>();
+    private final List<Route<T>> routes = new ArrayList<Route<T>>();
+
+    private final Node<T> root = new Node<T>();
 
     public CommandRouter<T> addRoute(String regex,
         String command,
         String commandDescription,
         RouterCommand<T> routerCommand) {
 
-        this.routes.add(new CommandRouter.Route<T>(regex,
+        Route<T> route = new CommandRouter.Route<T>(regex,
             command,
             commandDescription,
-            routerCommand));
+            routerCommand);
+
+        this.routes.add(route);
+
+        Node<T> node = root;
+        for (String keyword : route.keywords()) {
+            node = node.child(keyword, true);
+        }
+        node.routes.add(route);
 
         return this;
     }
 
+    /**
+     * @return the registered routes, in the order they were added
+     */
     public List<Route<T>> getRoutes() {
-        return this.routes;
+        return Collections.unmodifiableList(this.routes);
     }
 
-    public T route(String command) throws CommandRouterException,
+    public T route(String command, SlackPostData data) throws CommandRouterException,
         RouteNotFoundException {
 
-        T message = null;
-
-        for (Route<T> pa : routes) {
+        for (Route<T> pa : candidates(command)) {
 
             Matcher matcher = pa.regex.matcher(command);
 
-            boolean matches = matcher.matches();
+            if (matcher.matches()) {
 
-            if (matches) {
-    
                 String[] parametersArray = null;
 
                 if (matcher.groupCount() == 0) {
@@ -60,11 +91,18 @@ public class CommandRouter<T> {
                         parametersArray[i-1] = matcher.group(i);
                     }
                 }
-                
+
+                T message = null;
+
+                long start = System.nanoTime();
                 try {
-                    message = pa.routerCommand.execute(parametersArray);
+                    message = pa.routerCommand.execute(data, parametersArray);
                 } catch (Exception ex) {
+                    SlackMetrics.count(pa.metric + ".failure");
                     throw new CommandRouterException(ex.getMessage());
+                } finally {
+                    SlackMetrics.record(pa.metric + ".millis",
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
                 }
 
                 if (message == null)
@@ -74,7 +112,54 @@ public class CommandRouter<T> {
             }
         }
 
-        return message;
+        throw new RouteNotFoundException("No route found for given command", command);
+    }
+
+    /**
+     * Collects the routes whose keywords the command starts with, those
+     * with the most keywords in common first.
+     */
+    private List<Route<T>> candidates(String command) {
+        List<Node<T>> path = new ArrayList<Node<T>>();
+        Node<T> node = root;
+        path.add(node);
+
+        int length = command.length();
+        int start = 0;
+        while (node != null) {
+            while (start < length && Character.isWhitespace(command.charAt(start)))
+                start++;
+            int end = start;
+            while (end < length && !Character.isWhitespace(command.charAt(end)))
+                end++;
+            if (start == end)
+                break;
+
+            node = node.child(command.substring(start, end), false);
+            if (node != null)
+                path.add(node);
+            start = end;
+        }
+
+        List<Route<T>> candidates = new ArrayList<Route<T>>();
+        for (int i = path.size() - 1; i >= 0; i--) {
+            candidates.addAll(path.get(i).routes);
+        }
+        return candidates;
+    }
+
+    private static class Node<T> {
+        private final Map<String, Node<T>> children = new HashMap<String, Node<T>>();
+        private final List<Route<T>> routes = new ArrayList<Route<T>>();
+
+        private Node<T> child(String keyword, boolean create) {
+            Node<T> child = children.get(keyword);
+            if (child == null && create) {
+                child = new Node<T>();
+                children.put(keyword, child);
+            }
+            return child;
+        }
     }
 
     public static class Route<T> {
@@ -82,6 +167,7 @@ public class CommandRouter<T> {
         public String command;
         public String commandDescription;
         public RouterCommand<T> routerCommand;
+        private final String metric;
 
         public Route(String regex,
             String command,
@@ -92,6 +178,26 @@ public class CommandRouter<T> {
             this.routerCommand = routerCommand;
             this.command = command;
             this.commandDescription = commandDescription;
+
+            List<String> keywords = keywords();
+            this.metric = "webhook." + (keywords.isEmpty()
+                ? routerCommand.getClass().getName()
+                : StringUtils.join(keywords, "-"));
+        }
+
+        /**
+         * @return the literal words the command starts with, up to its first
+         * placeholder or optional part, e.g. {@code run} for
+         * {@code run <project_name>}
+         */
+        List<String> keywords() {
+            List<String> keywords = new ArrayList<String>();
+            for (String word : command.trim().split("\\s+")) {
+                if (word.isEmpty() || word.contains("<") || word.startsWith("["))
+                    break;
+                keywords.add(word);
+            }
+            return keywords;
         }
     }
 }
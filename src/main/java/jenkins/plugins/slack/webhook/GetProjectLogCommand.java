@@ -3,6 +3,8 @@ package jenkins.plugins.slack.webhook;
 
 import jenkins.model.Jenkins;
 
+import hudson.Extension;
+
 import hudson.model.Build;
 import hudson.model.Result;
 import hudson.model.Project;
@@ -28,14 +30,26 @@ import org.acegisecurity.context.SecurityContextHolder;
 
 
 
-public class GetProjectLogCommand extends SlackRouterCommand implements RouterCommand<SlackTextMessage> {
+@Extension(ordinal = 10)
+public class GetProjectLogCommand extends SlackRouterCommand {
+
+    @Override
+    public String getRegex() {
+        return "^get ([\\p{L}\\p{N}\\p{ASCII}\\W]+) #([0-9]+) log";
+    }
+
+    @Override
+    public String getCommand() {
+        return "get <project-name> #<build_number> log";
+    }
 
-    public GetProjectLogCommand(SlackPostData data) { 
-        super(data);
+    @Override
+    public String getDescription() {
+        return "Return a truncated log for build #<build_number> of <project_name>";
     }
 
     @Override
-    public SlackTextMessage execute(String... args) {
+    public SlackTextMessage execute(SlackPostData data, String... args) {
         String projectName = args[0];
         String buildNumber = args[1];
 
@@ -1,85 +1,279 @@
 package jenkins.plugins.slack.webhook;
 
 
-import jenkins.model.Jenkins;
+import hudson.Extension;
 
-import hudson.model.Build;
 import hudson.model.Result;
-import hudson.model.Project;
-import hudson.model.AbstractBuild;
-import hudson.model.AbstractProject;
-
-import hudson.security.ACL;
-
-import java.io.IOException;
 
 import java.util.List;
 import java.util.ArrayList;
 
-import org.kohsuke.stapler.interceptor.RequirePOST;
+import java.util.concurrent.TimeUnit;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import jenkins.plugins.slack.webhook.model.SlackPostData;
 import jenkins.plugins.slack.webhook.model.SlackTextMessage;
-import jenkins.plugins.slack.webhook.model.SlackWebhookCause;
 
-import org.acegisecurity.context.SecurityContext;
-import org.acegisecurity.context.SecurityContextHolder;
 
 
 
+/**
+ * {@code list projects [pattern] [failing|building] [page <n>]}
+ *
+ * Lists buildable projects whose name matches the pattern, a glob such as
+ * {@code api-*} or a {@code /regex/}; a pattern without wildcards matches
+ * names containing it. Long lists are split into pages that fit in a
+ * Slack message.
+ *
+ * Anyone allowed to use the slash command picks the pattern, so patterns
+ * are at most {@link #MAX_PATTERN_LENGTH} characters and all the matching
+ * for one command stops after {@link #MAX_MATCH_MILLIS}; a regex that
+ * backtracks catastrophically is reported instead of holding the thread.
+ */
+@Extension(ordinal = 30)
+public class ListProjectsCommand extends SlackRouterCommand {
+
+    /** Most projects shown on one page. */
+    static final int MAX_PAGE_ENTRIES = 50;
+
+    /** Most characters of project entries on one page, well below what Slack displays. */
+    static final int MAX_PAGE_LENGTH = 3500;
+
+    /** Longest pattern accepted. */
+    static final int MAX_PATTERN_LENGTH = 100;
+
+    /** Time all the project names of one command may take to match the pattern. */
+    static final long MAX_MATCH_MILLIS = 500;
+
+    /** Lists up to this size show each project on three lines. */
+    private static final int DETAILED_LIST_SIZE = 10;
 
-public class ListProjectsCommand extends SlackRouterCommand implements RouterCommand<SlackTextMessage> {
+    @Override
+    public String getRegex() {
+        return "^list projects(?:\\s+(.+))?";
+    }
 
-    public ListProjectsCommand(SlackPostData data) { 
-        super(data);
+    @Override
+    public String getCommand() {
+        return "list projects [pattern] [failing|building] [page <n>]";
     }
 
     @Override
-    public SlackTextMessage execute(String... args) {
+    public String getDescription() {
+        return "Return a list of buildable projects, optionally only those matching a glob or /regex/, failing or building";
+    }
 
-        SecurityContext ctx = ACL.impersonate(ACL.SYSTEM);
+    @Override
+    public SlackTextMessage execute(SlackPostData data, String... args) {
 
-        String response = "*Projects:*\n";
+        Filter filter;
+        try {
+            filter = Filter.parse(args.length > 0 ? args[0] : null);
+        } catch (PatternSyntaxException ex) {
+            return new SlackTextMessage("Invalid pattern: " + ex.getDescription());
+        }
 
-        List<AbstractProject> jobs =
-            Jenkins.getInstance().getAllItems(AbstractProject.class);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_MATCH_MILLIS);
+        List<ProjectStatusIndex.Status> jobs = new ArrayList<ProjectStatusIndex.Status>();
+        try {
+            for (ProjectStatusIndex.Status job : ProjectStatusIndex.all()) {
+                if (job.isBuildable() && filter.matches(job, deadline))
+                    jobs.add(job);
+            }
+        } catch (MatchTimeoutException ex) {
+            return new SlackTextMessage("Pattern took too long to match, try a simpler one");
+        }
 
-        SecurityContextHolder.setContext(ctx);
+        StringBuilder response = new StringBuilder("*Projects:*\n");
 
-        for (AbstractProject job : jobs) {
-            if (job.isBuildable()) {
-                AbstractBuild lastBuild = job.getLastBuild();
-                String buildNumber = "TBD";
-                String status = "TBD";
-                if (lastBuild != null) {
+        if (jobs.isEmpty())
+            return new SlackTextMessage(response.append(">_No projects found_").toString());
 
-                    buildNumber = Integer.toString(lastBuild.getNumber());
+        boolean detailed = jobs.size() <= DETAILED_LIST_SIZE;
+        StringBuilder entry = new StringBuilder();
+        int page = 1;
+        int pageEntries = 0;
+        int pageLength = 0;
 
-                    if (lastBuild.isBuilding()) {
-                        status = "BUILDING";
-                    }
+        for (ProjectStatusIndex.Status job : jobs) {
+            entry.setLength(0);
+            appendEntry(entry, job, detailed);
 
-                    Result result = lastBuild.getResult();
+            if (pageEntries > 0 && (pageEntries == MAX_PAGE_ENTRIES || pageLength + entry.length() > MAX_PAGE_LENGTH)) {
+                page++;
+                pageEntries = 0;
+                pageLength = 0;
+            }
+            pageEntries++;
+            pageLength += entry.length();
+
+            if (page == filter.page)
+                response.append(entry);
+        }
+
+        if (filter.page > page) {
+            response.append(">_No projects on page ").append(filter.page).append(" of ").append(page).append("_");
+        } else if (page > 1) {
+            response.append("_Page ").append(filter.page).append(" of ").append(page);
+            if (filter.page < page)
+                response.append(", ask for `page ").append(filter.page + 1).append("` for more");
+            response.append("_");
+        }
+
+        return new SlackTextMessage(response.toString());
+    }
+
+    private static void appendEntry(StringBuilder entry, ProjectStatusIndex.Status job, boolean detailed) {
+        String buildNumber = "TBD";
+        String status = "TBD";
+        if (job.getLastBuild() > 0) {
+
+            buildNumber = Integer.toString(job.getLastBuild());
+
+            if (job.isBuilding()) {
+                status = "BUILDING";
+            }
+
+            Result result = job.getResult();
+
+            if (result != null) {
+                status = result.toString();
+            }
+        }
 
-                    if (result != null) {
-                        status = result.toString();
-                    }
+        if (detailed) {
+            entry.append(">*").append(job.getDisplayName()).append("*\n>*Last Build:* #").append(buildNumber)
+                .append("\n>*Status:* ").append(status).append("\n\n\n");
+        } else {
+            entry.append(">*").append(job.getDisplayName()).append("* :: *Last Build:* #").append(buildNumber)
+                .append(" :: *Status:* ").append(status).append("\n\n");
+        }
+    }
+
+    /**
+     * The arguments of a {@code list projects} command.
+     */
+    static final class Filter {
+        private Pattern pattern;
+        private boolean failing;
+        private boolean building;
+        private int page = 1;
+
+        static Filter parse(String args) {
+            Filter filter = new Filter();
+            if (args == null)
+                return filter;
+
+            String[] words = args.trim().split("\\s+");
+            StringBuilder pattern = new StringBuilder();
+            for (int i = 0; i < words.length; i++) {
+                String word = words[i];
+                if (word.equalsIgnoreCase("page") && i + 1 < words.length && words[i + 1].matches("[0-9]{1,6}")) {
+                    filter.page = Math.max(1, Integer.parseInt(words[++i]));
+                } else if (word.equalsIgnoreCase("failing")) {
+                    filter.failing = true;
+                } else if (word.equalsIgnoreCase("building")) {
+                    filter.building = true;
+                } else if (!word.isEmpty()) {
+                    if (pattern.length() > 0)
+                        pattern.append(' ');
+                    pattern.append(word);
                 }
+            }
+            if (pattern.length() > 0)
+                filter.pattern = compile(pattern.toString());
+
+            return filter;
+        }
 
-                if (jobs.size() <= 10) {
-                    response += ">*"+job.getDisplayName() + "*\n>*Last Build:* #"+buildNumber+"\n>*Status:* "+status;
-                    response += "\n\n\n";
-                } else {
-                    response += ">*"+job.getDisplayName() + "* :: *Last Build:* #"+buildNumber+" :: *Status:* "+status;
-                    response += "\n\n";
+        /**
+         * Compiles a {@code /regex/} as is and a glob into a regex found in
+         * whole names, or anywhere in names if it has no wildcards.
+         */
+        static Pattern compile(String pattern) {
+            if (pattern.length() > MAX_PATTERN_LENGTH)
+                throw new PatternSyntaxException("longer than " + MAX_PATTERN_LENGTH + " characters", pattern, -1);
+
+            int flags = Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+            if (pattern.length() > 1 && pattern.startsWith("/") && pattern.endsWith("/"))
+                return Pattern.compile(pattern.substring(1, pattern.length() - 1), flags);
+
+            if (pattern.indexOf('*') < 0 && pattern.indexOf('?') < 0)
+                return Pattern.compile(Pattern.quote(pattern), flags);
+
+            StringBuilder regex = new StringBuilder("^");
+            int literal = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (c == '*' || c == '?') {
+                    if (i > literal)
+                        regex.append(Pattern.quote(pattern.substring(literal, i)));
+                    regex.append(c == '*' ? ".*" : ".");
+                    literal = i + 1;
                 }
             }
+            if (literal < pattern.length())
+                regex.append(Pattern.quote(pattern.substring(literal)));
+
+            return Pattern.compile(regex.append("$").toString(), flags | Pattern.DOTALL);
         }
 
-        if (jobs == null || jobs.size() == 0)
-            response += ">_No projects found_";
+        /**
+         * @param deadline {@link System#nanoTime()} after which matching
+         * the pattern throws a {@link MatchTimeoutException}
+         */
+        boolean matches(ProjectStatusIndex.Status job, long deadline) {
+            if (failing && job.getResult() != Result.FAILURE && job.getResult() != Result.UNSTABLE)
+                return false;
 
-        return new SlackTextMessage(response);
+            if (building && !job.isBuilding())
+                return false;
+
+            return pattern == null || pattern.matcher(new TimeLimitedCharSequence(job.getDisplayName(), deadline)).find();
+        }
     }
-}
 
+    /**
+     * Text that throws a {@link MatchTimeoutException} when read after the
+     * deadline, which stops any regex matching it.
+     */
+    static final class TimeLimitedCharSequence implements CharSequence {
+        private final CharSequence text;
+        private final long deadline;
+
+        TimeLimitedCharSequence(CharSequence text, long deadline) {
+            this.text = text;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (System.nanoTime() - deadline > 0)
+                throw new MatchTimeoutException();
+            return text.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new TimeLimitedCharSequence(text.subSequence(start, end), deadline);
+        }
+
+        @Override
+        public String toString() {
+            return text.toString();
+        }
+    }
+
+    static final class MatchTimeoutException extends RuntimeException {
+        MatchTimeoutException() {
+            super("Pattern took longer than " + MAX_MATCH_MILLIS + " ms to match");
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package jenkins.plugins.slack.webhook;
+
+
+import jenkins.model.Jenkins;
+
+import hudson.Extension;
+import hudson.XmlFile;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Items;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.Saveable;
+import hudson.model.TaskListener;
+
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.RunListener;
+import hudson.model.listeners.SaveableListener;
+
+import hudson.security.ACL;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+
+
+
+
+/**
+ * In-memory status of every project, so {@code list projects} does not
+ * walk the whole item tree and load each project's last build.
+ *
+ * The index is built the first time it is asked for, so startup does not
+ * load the last build of every project, and then kept up to date by item
+ * and run events. Events before that are ignored, the load picks them up.
+ */
+@SuppressWarnings("rawtypes")
+public final class ProjectStatusIndex {
+
+    private static final Comparator<String> BY_NAME = new Comparator<String>() {
+        @Override
+        public int compare(String a, String b) {
+            int order = a.compareToIgnoreCase(b);
+            return order != 0 ? order : a.compareTo(b);
+        }
+    };
+
+    private static final ConcurrentSkipListMap<String, Status> PROJECTS =
+        new ConcurrentSkipListMap<String, Status>(BY_NAME);
+
+    private static volatile boolean loaded;
+
+    private ProjectStatusIndex() { }
+
+    /**
+     * @return the status of every project, ordered by full name
+     */
+    public static Collection<Status> all() {
+        if (!loaded)
+            load();
+
+        return PROJECTS.values();
+    }
+
+    static synchronized void load() {
+        if (loaded)
+            return;
+
+        SecurityContext ctx = ACL.impersonate(ACL.SYSTEM);
+        try {
+            PROJECTS.clear();
+            for (AbstractProject project : Jenkins.getInstance().getAllItems(AbstractProject.class)) {
+                update(project);
+            }
+            loaded = true;
+        } finally {
+            SecurityContextHolder.setContext(ctx);
+        }
+    }
+
+    static synchronized void update(AbstractProject project) {
+        AbstractBuild lastBuild = project.getLastBuild();
+        PROJECTS.put(project.getFullName(), new Status(project.getDisplayName(),
+            project.isBuildable(),
+            lastBuild != null ? lastBuild.getNumber() : 0,
+            lastBuild != null ? lastBuild.getResult() : null,
+            lastBuild != null && lastBuild.isBuilding()));
+    }
+
+    /**
+     * Picks up changes to the name or buildable state of a project without
+     * loading its builds again.
+     */
+    static synchronized void updateConfiguration(AbstractProject project) {
+        if (!loaded)
+            return;
+
+        Status status = PROJECTS.get(project.getFullName());
+        if (status == null) {
+            update(project);
+        } else {
+            PROJECTS.put(project.getFullName(), new Status(project.getDisplayName(),
+                project.isBuildable(), status.lastBuild, status.result, status.building));
+        }
+    }
+
+    static synchronized void updateBuild(Run run, boolean building) {
+        if (!loaded || !(run.getParent() instanceof AbstractProject))
+            return;
+
+        AbstractProject project = (AbstractProject) run.getParent();
+        Status status = PROJECTS.get(project.getFullName());
+        if (status == null) {
+            update(project);
+        } else if (run.getNumber() >= status.lastBuild) {
+            PROJECTS.put(project.getFullName(), new Status(status.displayName,
+                status.buildable, run.getNumber(), run.getResult(), building));
+        }
+    }
+
+    static synchronized void buildDeleted(Run run) {
+        if (!loaded || !(run.getParent() instanceof AbstractProject))
+            return;
+
+        AbstractProject project = (AbstractProject) run.getParent();
+        Status status = PROJECTS.get(project.getFullName());
+        if (status != null && status.lastBuild == run.getNumber()) {
+            // the run is still the project's last build at this point
+            Run previous = run.getPreviousBuild();
+            PROJECTS.put(project.getFullName(), new Status(status.displayName, status.buildable,
+                previous != null ? previous.getNumber() : 0,
+                previous != null ? previous.getResult() : null,
+                previous != null && previous.isBuilding()));
+        }
+    }
+
+    /**
+     * Adds a new or moved item, or the projects inside it.
+     */
+    static synchronized void add(Item item) {
+        if (!loaded)
+            return;
+
+        if (item instanceof AbstractProject)
+            update((AbstractProject) item);
+
+        if (item instanceof ItemGroup) {
+            for (AbstractProject project : Items.getAllItems((ItemGroup) item, AbstractProject.class)) {
+                update(project);
+            }
+        }
+    }
+
+    /**
+     * Removes an item and the projects inside it.
+     */
+    static synchronized void remove(String fullName) {
+        PROJECTS.remove(fullName);
+        String prefix = fullName + "/";
+        for (Iterator<String> names = PROJECTS.keySet().iterator(); names.hasNext(); ) {
+            if (names.next().startsWith(prefix))
+                names.remove();
+        }
+    }
+
+    public static final class Status {
+        private final String displayName;
+        private final boolean buildable;
+        private final int lastBuild;
+        private final Result result;
+        private final boolean building;
+
+        Status(String displayName, boolean buildable, int lastBuild, Result result, boolean building) {
+            this.displayName = displayName;
+            this.buildable = buildable;
+            this.lastBuild = lastBuild;
+            this.result = result;
+            this.building = building;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        public boolean isBuildable() {
+            return buildable;
+        }
+
+        /**
+         * @return the number of the last build, or {@code 0} if the project
+         * has never been built
+         */
+        public int getLastBuild() {
+            return lastBuild;
+        }
+
+        public Result getResult() {
+            return result;
+        }
+
+        public boolean isBuilding() {
+            return building;
+        }
+    }
+
+    @Extension
+    public static final class ItemUpdater extends ItemListener {
+
+        @Override
+        public void onCreated(Item item) {
+            add(item);
+        }
+
+        @Override
+        public void onCopied(Item src, Item item) {
+            add(item);
+        }
+
+        @Override
+        public void onUpdated(Item item) {
+            if (item instanceof AbstractProject)
+                updateConfiguration((AbstractProject) item);
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            remove(item.getFullName());
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            remove(oldFullName);
+            add(item);
+        }
+    }
+
+    /**
+     * Catches projects being disabled or enabled, which saves them.
+     */
+    @Extension
+    public static final class ConfigUpdater extends SaveableListener {
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof AbstractProject)
+                updateConfiguration((AbstractProject) o);
+        }
+    }
+
+    @Extension
+    public static final class RunUpdater extends RunListener<Run> {
+
+        public RunUpdater() {
+            super(Run.class);
+        }
+
+        @Override
+        public void onStarted(Run r, TaskListener listener) {
+            updateBuild(r, true);
+        }
+
+        @Override
+        public void onCompleted(Run r, TaskListener listener) {
+            updateBuild(r, false);
+        }
+
+        @Override
+        public void onDeleted(Run r) {
+            buildDeleted(r);
+        }
+    }
+}
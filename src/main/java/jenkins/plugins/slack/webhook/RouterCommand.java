@@ -1,8 +1,16 @@
 package jenkins.plugins.slack.webhook;
 
 
+import jenkins.plugins.slack.webhook.model.SlackPostData;
 
 
+
+
+/**
+ * A command the {@link CommandRouter} dispatches to. Commands are shared by
+ * all requests, so they must not keep state; everything about the request
+ * is passed to {@link #execute(SlackPostData, String...)}.
+ */
 public interface RouterCommand<T> {
-    public T execute(String... args);
+    public T execute(SlackPostData data, String... args);
 }
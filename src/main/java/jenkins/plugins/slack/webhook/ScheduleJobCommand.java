@@ -3,6 +3,8 @@ package jenkins.plugins.slack.webhook;
 
 import jenkins.model.Jenkins;
 
+import hudson.Extension;
+
 import hudson.model.Build;
 import hudson.model.Result;
 import hudson.model.Project;
@@ -28,14 +30,26 @@ import org.acegisecurity.context.SecurityContextHolder;
 
 
 
-public class ScheduleJobCommand extends SlackRouterCommand implements RouterCommand<SlackTextMessage> {
+@Extension(ordinal = 20)
+public class ScheduleJobCommand extends SlackRouterCommand {
+
+    @Override
+    public String getRegex() {
+        return "^run ([\\p{L}\\p{N}\\p{ASCII}\\W]+)";
+    }
+
+    @Override
+    public String getCommand() {
+        return "run <project_name>";
+    }
 
-    public ScheduleJobCommand(SlackPostData data) { 
-        super(data);
+    @Override
+    public String getDescription() {
+        return "Schedule a run for <project_name>";
     }
 
     @Override
-    public SlackTextMessage execute(String... args) {
+    public SlackTextMessage execute(SlackPostData data, String... args) {
 
         String projectName = args[0];
         SecurityContext ctx = ACL.impersonate(ACL.SYSTEM);
@@ -49,7 +63,7 @@ public class ScheduleJobCommand extends SlackRouterCommand implements RouterComm
             if (project == null)
                 return new SlackTextMessage("Could not find project ("+projectName+")\n");
 
-            if (project.scheduleBuild(new SlackWebhookCause(this.getData().getUser_name()))) {
+            if (project.scheduleBuild(new SlackWebhookCause(data.getUser_name()))) {
                 return new SlackTextMessage("Build scheduled for project "+ projectName+"\n");
             } else {
                 return new SlackTextMessage("Build not scheduled due to an issue with Jenkins");
@@ -1,23 +1,57 @@
 package jenkins.plugins.slack.webhook;
 
 
-import jenkins.plugins.slack.webhook.model.SlackPostData;
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
 
+import jenkins.model.Jenkins;
 
+import jenkins.plugins.slack.webhook.model.SlackTextMessage;
 
 
-public abstract class SlackRouterCommand {
-    private SlackPostData data;
 
-    public SlackRouterCommand(SlackPostData data) {
-        this.data = data;
-    }
 
-    public SlackPostData getData() {
-        return this.data;
+/**
+ * A command answering Slack outgoing webhooks. Plugins contribute commands
+ * by extending this class and marking it with {@code @Extension}; the
+ * commands are discovered once at startup and compiled into the
+ * {@link CommandRouter} of the {@link WebhookEndpoint}.
+ *
+ * A single instance serves all requests, so commands must not keep state.
+ */
+public abstract class SlackRouterCommand implements RouterCommand<SlackTextMessage>, ExtensionPoint {
+
+    /**
+     * @return the regex a command has to match; its groups are passed to
+     * {@link #execute(jenkins.plugins.slack.webhook.model.SlackPostData, String...)}
+     */
+    public abstract String getRegex();
+
+    /**
+     * @return the usage shown in the help, without the trigger word, e.g.
+     * {@code run <project_name>}. The words before the first placeholder are
+     * the keywords the command is routed by and must begin every command
+     * the regex matches.
+     */
+    public abstract String getCommand();
+
+    public abstract String getDescription();
+
+    public static ExtensionList<SlackRouterCommand> all() {
+        return Jenkins.getInstance().getExtensionList(SlackRouterCommand.class);
     }
 
-    public void setData(SlackPostData data) {
-        this.data = data;
+    /**
+     * Builds a router for all registered commands, in extension order.
+     */
+    public static CommandRouter<SlackTextMessage> createRouter() {
+        CommandRouter<SlackTextMessage> router = new CommandRouter<SlackTextMessage>();
+        for (SlackRouterCommand command : all()) {
+            router.addRoute(command.getRegex(),
+                command.getCommand(),
+                command.getDescription(),
+                command);
+        }
+        return router;
     }
 }
@@ -5,6 +5,8 @@ import jenkins.model.Jenkins;
 import jenkins.model.GlobalConfiguration;
 
 import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
 
 import hudson.model.UnprotectedRootAction;
 
@@ -42,10 +44,30 @@ public class WebhookEndpoint implements UnprotectedRootAction {
     private static final Logger LOGGER =
         Logger.getLogger(WebhookEndpoint.class.getName());
 
+    private static volatile CommandRouter<SlackTextMessage> router;
+
     public WebhookEndpoint() {
         globalConfig = GlobalConfiguration.all().get(GlobalConfig.class);
     }
 
+    /**
+     * Compiles the registered {@link SlackRouterCommand}s into the routing
+     * table shared by all requests.
+     */
+    @Initializer(after = InitMilestone.EXTENSIONS_AUGMENTED)
+    public static void buildRouter() {
+        router = SlackRouterCommand.createRouter();
+    }
+
+    private static CommandRouter<SlackTextMessage> getRouter() {
+        CommandRouter<SlackTextMessage> r = router;
+        if (r == null) {
+            r = SlackRouterCommand.createRouter();
+            router = r;
+        }
+        return r;
+    }
+
     @Override
     public String getUrlName() {
         String url = globalConfig.getSlackOutgoingWebhookURL();
@@ -88,24 +110,10 @@ public class WebhookEndpoint implements UnprotectedRootAction {
 
         commandText = commandText.trim().replaceFirst(triggerWord, "").trim();
 
-        CommandRouter<SlackTextMessage> router =
-            new CommandRouter<SlackTextMessage>();
+        CommandRouter<SlackTextMessage> commandRouter = getRouter();
 
         try {
-            router.addRoute("^list projects",
-                triggerWord+" list projects",
-                "Return a list of buildable projects",
-                new ListProjectsCommand(data))
-            .addRoute("^run ([\\p{L}\\p{N}\\p{ASCII}\\W]+)",
-                triggerWord+" run <project_name>",
-                "Schedule a run for <project_name>",
-                new ScheduleJobCommand(data))
-            .addRoute("^get ([\\p{L}\\p{N}\\p{ASCII}\\W]+) #([0-9]+) log",
-                triggerWord+" get <project-name> #<build_number> log",
-                "Return a truncated log for build #<build_number> of <project_name>",
-                new GetProjectLogCommand(data));
-
-            SlackTextMessage msg = router.route(commandText);
+            SlackTextMessage msg = commandRouter.route(commandText, data);
 
             return new JsonResponse(msg, StaplerResponse.SC_OK);
             
@@ -121,8 +129,8 @@ public class WebhookEndpoint implements UnprotectedRootAction {
             else
                 response += "\n";
 
-            for (CommandRouter.Route route : router.getRoutes()) {
-                response += "`"+route.command+"`\n```"+route.commandDescription+"```";
+            for (CommandRouter.Route route : commandRouter.getRoutes()) {
+                response += "`"+triggerWord+" "+route.command+"`\n```"+route.commandDescription+"```";
                 response += "\n\n";
             }
 
@@ -229,6 +229,7 @@ public class SlackSendStep extends AbstractStepImpl {
             listener.getLogger().println(Messages.SlackSendStepConfig(step.baseUrl == null, step.teamDomain == null, step.token == null, step.channel == null, step.color == null));
 
             SlackService slackService = getSlackService(baseUrl, team, token, tokenCredentialId, botUser, channel);
+            // failOnError needs the outcome after retries, not that of the first attempt
             boolean publishSuccess;
             if(step.attachments != null){
                 JsonSlurper jsonSlurper = new JsonSlurper();
@@ -253,9 +254,13 @@ public class SlackSendStep extends AbstractStepImpl {
                         }
                     }
                 }
-                publishSuccess = slackService.publish(jsonArray, color);
+                publishSuccess = slackService instanceof StandardSlackService
+                        ? ((StandardSlackService) slackService).publishAndWait(jsonArray, color)
+                        : slackService.publish(jsonArray, color);
             }else{
-                publishSuccess = slackService.publish(step.message, color);
+                publishSuccess = slackService instanceof StandardSlackService
+                        ? ((StandardSlackService) slackService).publishAndWait(step.message, color)
+                        : slackService.publish(step.message, color);
             }
             if (!publishSuccess && step.failOnError) {
                 throw new AbortException(Messages.NotificationFailed());
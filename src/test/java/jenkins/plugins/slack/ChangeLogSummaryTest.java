@@ -0,0 +1,121 @@
+package jenkins.plugins.slack;
+
+import hudson.model.User;
+import hudson.scm.ChangeLogSet;
+import hudson.scm.ChangeLogSet.AffectedFile;
+import hudson.scm.ChangeLogSet.Entry;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class ChangeLogSummaryTest {
+
+    @Test
+    public void emptyChangeSet() {
+        ChangeLogSummary summary = ChangeLogSummary.of(changeSet(new ArrayList<Entry>()));
+
+        assertTrue(summary.isEmpty());
+    }
+
+    @Test
+    public void countsDistinctAuthorsAndFiles() {
+        ChangeLogSet changeSet = changeSet(Arrays.asList(
+                entry("Alice", "one", "a.txt", "b.txt"),
+                entry("Bob", "two", "b.txt"),
+                entry("Alice", "three", "c.txt")));
+
+        ChangeLogSummary summary = ChangeLogSummary.of(changeSet);
+
+        assertEquals("Alice, Bob", summary.getAuthors());
+        assertEquals("3", summary.getFileCount());
+    }
+
+    @Test
+    public void filesBeyondTheCapAreNotCounted() {
+        ChangeLogSet changeSet = changeSet(Arrays.asList(
+                entry("Alice", "one", "a.txt", "b.txt"),
+                entry("Bob", "two", "a.txt", "c.txt")));
+
+        assertEquals("more than 2", ChangeLogSummary.of(changeSet, null, 50, 2).getFileCount());
+    }
+
+    @Test
+    public void authorsBeyondTheCapAreSummarized() {
+        List<Entry> entries = new ArrayList<Entry>();
+        for (int i = 0; i < ChangeLogSummary.MAX_AUTHORS + 3; i++) {
+            entries.add(entry("author" + i, "commit" + i));
+        }
+
+        String authors = ChangeLogSummary.of(changeSet(entries)).getAuthors();
+
+        assertTrue(authors, authors.startsWith("author0, author1, "));
+        assertTrue(authors, authors.endsWith(" and 3 more"));
+    }
+
+    @Test
+    public void commitsBeyondTheCapAreSummarized() {
+        List<Entry> entries = new ArrayList<Entry>();
+        for (int i = 0; i < 5000; i++) {
+            entries.add(entry("Alice", "commit" + i));
+        }
+
+        ChangeLogSummary summary = ChangeLogSummary.of(changeSet(entries), CommitInfoChoice.AUTHORS_AND_TITLES, 2, 100);
+
+        assertEquals("commit0 [Alice]\n- commit1 [Alice]\n- and 4,998 more", summary.getCommits());
+    }
+
+    @Test
+    public void identicalCommitLinesAreListedOnce() {
+        ChangeLogSet changeSet = changeSet(Arrays.asList(
+                entry("Alice", "one"),
+                entry("Bob", "two"),
+                entry("Alice", "three")));
+
+        assertEquals(" [Alice]\n-  [Bob]", ChangeLogSummary.of(changeSet, CommitInfoChoice.AUTHORS).getCommits());
+    }
+
+    @Test
+    public void entriesAfterTheListIsFullAreCountedEachTime() {
+        ChangeLogSet changeSet = changeSet(Arrays.asList(
+                entry("Alice", "one"),
+                entry("Alice", "two"),
+                entry("Alice", "one"),
+                entry("Alice", "three"),
+                entry("Alice", "three")));
+
+        assertEquals("one [Alice]\n- two [Alice]\n- and 3 more",
+                ChangeLogSummary.of(changeSet, CommitInfoChoice.AUTHORS_AND_TITLES, 2, 100).getCommits());
+    }
+
+    private static ChangeLogSet changeSet(List<Entry> entries) {
+        ChangeLogSet changeSet = mock(ChangeLogSet.class);
+        when(changeSet.iterator()).thenReturn(entries.iterator());
+        return changeSet;
+    }
+
+    private static Entry entry(String author, String message, String... paths) {
+        User user = mock(User.class);
+        when(user.getDisplayName()).thenReturn(author);
+        Collection files = new ArrayList();
+        for (String path : paths) {
+            AffectedFile file = mock(AffectedFile.class);
+            when(file.getPath()).thenReturn(path);
+            files.add(file);
+        }
+        Entry entry = mock(Entry.class);
+        when(entry.getAuthor()).thenReturn(user);
+        when(entry.getMsg()).thenReturn(message);
+        when(entry.getAffectedFiles()).thenReturn(paths.length > 0 ? files : Collections.emptyList());
+        return entry;
+    }
+}
@@ -12,16 +12,17 @@ import org.apache.http.params.HttpParams;
 import org.apache.http.protocol.HttpContext;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class CloseableHttpClientStub extends CloseableHttpClient {
 
-    private int numberOfCallsToExecuteMethod;
+    private final AtomicInteger numberOfCallsToExecuteMethod = new AtomicInteger();
     private int httpStatus;
     private boolean failAlternateResponses = false;
 
     public CloseableHttpResponse execute(HttpUriRequest post) {
-        numberOfCallsToExecuteMethod++;
-        if (failAlternateResponses && (numberOfCallsToExecuteMethod % 2 == 0)) {
+        int call = numberOfCallsToExecuteMethod.incrementAndGet();
+        if (failAlternateResponses && (call % 2 == 0)) {
             return new CloseableHttpResponseStub(HttpStatus.SC_NOT_FOUND);
         } else {
             return new CloseableHttpResponseStub(httpStatus);
@@ -49,7 +50,7 @@ public class CloseableHttpClientStub extends CloseableHttpClient {
     }
 
     public int getNumberOfCallsToExecuteMethod() {
-        return numberOfCallsToExecuteMethod;
+        return numberOfCallsToExecuteMethod.get();
     }
 
     public void setHttpStatus(int httpStatus) {
@@ -0,0 +1,109 @@
+package jenkins.plugins.slack;
+
+import org.junit.Test;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compares {@link ActiveNotifier.MessageBuilder#appendEscaped(StringBuilder, String)} with the regex and
+ * {@link MessageFormat} based escaping it replaced, on a message listing many failed tests.
+ * <p>
+ * Not part of the regular build, surefire only picks up {@code *Test} classes. Run it with
+ * {@code mvn test -Dtest=MessageBuilderBenchmark -Dbenchmark=true [-Dbenchmark.failedTests=2000]
+ * [-Dbenchmark.iterations=200]}.
+ */
+public class MessageBuilderBenchmark {
+
+    private static final Pattern aTag = Pattern.compile("(?i)<a([^>]+)>(.+?)</a>");
+    private static final Pattern href = Pattern.compile("\\s*(?i)href\\s*=\\s*(\"([^\"]*\")|'[^']*'|([^'\">\\s]+))");
+
+    @Test
+    public void singlePassAgainstRegexEscaping() {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        int failedTests = Integer.getInteger("benchmark.failedTests", 2000);
+        int iterations = Integer.getInteger("benchmark.iterations", 200);
+
+        List<String> fragments = new ArrayList<String>();
+        fragments.add("project - #541 <a href=\"https://example.org/pull-request/125\">#125 Fix</a> ");
+        for (int i = 0; i < failedTests; i++) {
+            fragments.add("\torg.example.module" + (i % 17) + ".SomeFeatureTest.shouldHandle<Case" + i + "> after ");
+            fragments.add((i % 60) + " sec\n");
+        }
+
+        StringBuilder singlePass = new StringBuilder();
+        StringBuffer legacy = new StringBuffer();
+        for (String fragment : fragments) {
+            ActiveNotifier.MessageBuilder.appendEscaped(singlePass, fragment);
+            legacy.append(legacyEscape(fragment));
+        }
+        assertEquals(legacy.toString(), singlePass.toString());
+
+        for (int warmup = 0; warmup < 3; warmup++) {
+            runLegacy(fragments, iterations);
+            runSinglePass(fragments, iterations);
+        }
+        long legacyNanos = runLegacy(fragments, iterations);
+        long singlePassNanos = runSinglePass(fragments, iterations);
+
+        System.out.printf("%d fragments x %d iterations%n", fragments.size(), iterations);
+        System.out.printf("regex + MessageFormat: %8.2f ms/message%n", legacyNanos / 1e6 / iterations);
+        System.out.printf("single pass:           %8.2f ms/message%n", singlePassNanos / 1e6 / iterations);
+        System.out.printf("speedup:               %8.2fx%n", (double) legacyNanos / singlePassNanos);
+    }
+
+    private static long runLegacy(List<String> fragments, int iterations) {
+        long start = System.nanoTime();
+        int length = 0;
+        for (int i = 0; i < iterations; i++) {
+            StringBuffer message = new StringBuffer();
+            for (String fragment : fragments) {
+                message.append(legacyEscape(fragment));
+            }
+            length += message.length();
+        }
+        return consume(System.nanoTime() - start, length);
+    }
+
+    private static long runSinglePass(List<String> fragments, int iterations) {
+        long start = System.nanoTime();
+        int length = 0;
+        for (int i = 0; i < iterations; i++) {
+            StringBuilder message = new StringBuilder();
+            for (String fragment : fragments) {
+                ActiveNotifier.MessageBuilder.appendEscaped(message, fragment);
+            }
+            length += message.length();
+        }
+        return consume(System.nanoTime() - start, length);
+    }
+
+    private static long consume(long elapsed, int length) {
+        if (length == 42) {
+            System.out.println();
+        }
+        return elapsed;
+    }
+
+    private static String legacyEscape(String string) {
+        StringBuffer pattern = new StringBuffer();
+        Matcher matcher = aTag.matcher(string);
+        List<String> links = new ArrayList<String>();
+        while (matcher.find()) {
+            Matcher url = href.matcher(matcher.group(1));
+            if (url.find()) {
+                matcher.appendReplacement(pattern, String.format("{%s}", links.size()));
+                links.add(String.format("<%s|%s>", url.group(1).replaceAll("\"", ""), matcher.group(2)));
+            }
+        }
+        matcher.appendTail(pattern);
+        String escaped = pattern.toString().replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+        return MessageFormat.format(escaped, links.toArray());
+    }
+}
@@ -0,0 +1,50 @@
+package jenkins.plugins.slack;
+
+import hudson.EnvVars;
+import hudson.model.FreeStyleBuild;
+import hudson.model.TaskListener;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class NotificationContextTest {
+
+    @Test
+    public void environmentAndServiceAreComputedOnce() throws Exception {
+        FreeStyleBuild build = mock(FreeStyleBuild.class);
+        EnvVars env = new EnvVars("ROOM", "#builds");
+        when(build.getEnvironment(any(TaskListener.class))).thenReturn(env);
+        SlackNotifier notifier = mock(SlackNotifier.class);
+        SlackService slack = mock(SlackService.class);
+        when(notifier.newSlackService(env)).thenReturn(slack);
+
+        NotificationContext context = new NotificationContext(notifier, build, null);
+
+        assertSame(slack, context.getSlack());
+        assertSame(slack, context.getSlack());
+        assertSame(env, context.getEnvironment());
+        verify(build, times(1)).getEnvironment(any(TaskListener.class));
+        verify(notifier, times(1)).newSlackService(env);
+    }
+
+    @Test
+    public void failingEnvironmentFallsBackToEmpty() throws Exception {
+        FreeStyleBuild build = mock(FreeStyleBuild.class);
+        when(build.getEnvironment(any(TaskListener.class))).thenThrow(new IOException("offline"));
+
+        NotificationContext context = new NotificationContext(mock(SlackNotifier.class), build, null);
+
+        assertTrue(context.getEnvironment().isEmpty());
+        assertEquals("$ROOM", context.getEnvironment().expand("$ROOM"));
+        verify(build, times(1)).getEnvironment(any(TaskListener.class));
+    }
+}
@@ -0,0 +1,48 @@
+package jenkins.plugins.slack;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+
+    private final RetryPolicy policy = new RetryPolicy(3, 100, 1000);
+
+    @Test
+    public void onlyTransientFailuresAreRetried() {
+        assertTrue(policy.isRetryable(429));
+        assertTrue(policy.isRetryable(500));
+        assertTrue(policy.isRetryable(503));
+        assertTrue(policy.isRetryable(RetryPolicy.NO_RESPONSE));
+        assertFalse(policy.isRetryable(400));
+        assertFalse(policy.isRetryable(403));
+        assertFalse(policy.isRetryable(404));
+    }
+
+    @Test
+    public void retriesStopAtMaxAttempts() {
+        assertTrue(policy.shouldRetry(1, 503));
+        assertTrue(policy.shouldRetry(2, 503));
+        assertFalse(policy.shouldRetry(3, 503));
+    }
+
+    @Test
+    public void delayGrowsExponentiallyWithJitter() {
+        for (int i = 0; i < 100; i++) {
+            long first = policy.delayMillis(1, -1);
+            long second = policy.delayMillis(2, -1);
+            long tenth = policy.delayMillis(10, -1);
+            assertTrue(first >= 50 && first <= 100);
+            assertTrue(second >= 100 && second <= 200);
+            assertTrue(tenth >= 500 && tenth <= 1000);
+        }
+    }
+
+    @Test
+    public void retryAfterIsHonoured() {
+        assertEquals(30000, policy.delayMillis(1, 30000));
+        assertEquals(0, policy.delayMillis(2, 0));
+    }
+}
@@ -0,0 +1,22 @@
+package jenkins.plugins.slack;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+public class SharedHttpClientTest {
+
+    @Test
+    public void clientIsReusedWhileProxyIsUnchanged() {
+        assertNotNull(SharedHttpClient.get());
+        assertSame(SharedHttpClient.get(), SharedHttpClient.get());
+    }
+
+    @Test
+    public void evictingIdleConnectionsDoesNotDiscardClient() {
+        StandardSlackService service = new StandardSlackService("", "domain", "token", null, false, "#room1");
+        SharedHttpClient.evictIdleConnections();
+        assertSame(SharedHttpClient.get(), service.getHttpClient());
+    }
+}
@@ -0,0 +1,69 @@
+package jenkins.plugins.slack;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SlackCircuitBreakerTest {
+
+    private final SlackCircuitBreaker breaker = new SlackCircuitBreaker("endpoint", 3, 1000);
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        breaker.recordFailure(0);
+        breaker.recordFailure(0);
+        assertEquals(SlackCircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest(0));
+        breaker.recordFailure(0);
+        assertEquals(SlackCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest(999));
+    }
+
+    @Test
+    public void successResetsFailureCount() {
+        breaker.recordFailure(0);
+        breaker.recordFailure(0);
+        breaker.recordSuccess();
+        breaker.recordFailure(0);
+        assertEquals(SlackCircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(1, breaker.getConsecutiveFailures());
+    }
+
+    @Test
+    public void halfOpenLetsSingleProbeThrough() {
+        tripAt(0);
+        assertTrue(breaker.allowRequest(1000));
+        assertEquals(SlackCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest(1000));
+        breaker.recordSuccess();
+        assertEquals(SlackCircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest(1000));
+    }
+
+    @Test
+    public void failedProbeReopens() {
+        tripAt(0);
+        assertTrue(breaker.allowRequest(1000));
+        breaker.recordFailure(1000);
+        assertEquals(SlackCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest(1999));
+        assertTrue(breaker.allowRequest(2000));
+    }
+
+    @Test
+    public void breakersAreSharedPerEndpoint() {
+        SlackCircuitBreaker.reset();
+        assertSame(SlackCircuitBreaker.forEndpoint("a"), SlackCircuitBreaker.forEndpoint("a"));
+        SlackCircuitBreaker.forEndpoint("b");
+        assertEquals(2, SlackCircuitBreaker.all().size());
+    }
+
+    private void tripAt(long now) {
+        for (int i = 0; i < 3; i++) {
+            breaker.recordFailure(now);
+        }
+    }
+}
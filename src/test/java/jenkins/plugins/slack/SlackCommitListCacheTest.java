@@ -0,0 +1,40 @@
+package jenkins.plugins.slack;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SlackCommitListCacheTest {
+
+    @Before
+    public void setUp() {
+        SlackCommitListCache.clear();
+    }
+
+    @Test
+    public void listsAreKeyedByBuildAndCommitInfo() {
+        SlackCommitListCache.put("upstream", 7, CommitInfoChoice.AUTHORS, "authors");
+        SlackCommitListCache.put("upstream", 7, CommitInfoChoice.AUTHORS_AND_TITLES, "titles");
+
+        assertEquals("authors", SlackCommitListCache.get("upstream", 7, CommitInfoChoice.AUTHORS));
+        assertEquals("titles", SlackCommitListCache.get("upstream", 7, CommitInfoChoice.AUTHORS_AND_TITLES));
+        assertNull(SlackCommitListCache.get("upstream", 8, CommitInfoChoice.AUTHORS));
+        assertNull(SlackCommitListCache.get("other", 7, CommitInfoChoice.AUTHORS));
+    }
+
+    @Test
+    public void leastRecentlyUsedListIsEvicted() {
+        SlackCommitListCache.put("upstream", 0, CommitInfoChoice.AUTHORS, "first");
+        SlackCommitListCache.put("upstream", 1, CommitInfoChoice.AUTHORS, "second");
+        for (int build = 2; build <= SlackCommitListCache.SIZE; build++) {
+            // keep the first list in use
+            SlackCommitListCache.get("upstream", 0, CommitInfoChoice.AUTHORS);
+            SlackCommitListCache.put("upstream", build, CommitInfoChoice.AUTHORS, "list " + build);
+        }
+
+        assertEquals("first", SlackCommitListCache.get("upstream", 0, CommitInfoChoice.AUTHORS));
+        assertNull(SlackCommitListCache.get("upstream", 1, CommitInfoChoice.AUTHORS));
+    }
+}
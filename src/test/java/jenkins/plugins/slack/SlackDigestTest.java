@@ -0,0 +1,62 @@
+package jenkins.plugins.slack;
+
+import net.sf.json.JSONArray;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SlackDigestTest {
+
+    @Test
+    public void fullDigestIsSentAsOnePost() {
+        StandardSlackService service = mock(StandardSlackService.class);
+        when(service.getDigestKey()).thenReturn("fullDigestIsSentAsOnePost");
+        when(service.publish(any(SlackPayload.class), anyString())).thenReturn(true);
+
+        assertTrue(SlackDigest.add(service, "good", attachments("one"), 3600, 3));
+        assertTrue(SlackDigest.add(service, "danger", attachments("two"), 3600, 3));
+        assertTrue(SlackDigest.add(service, "good", attachments("three"), 3600, 3));
+
+        ArgumentCaptor<SlackPayload> posted = ArgumentCaptor.forClass(SlackPayload.class);
+        verify(service, timeout(5000)).publish(posted.capture(), anyString());
+        assertEquals(3, posted.getValue().size());
+        assertEquals(3, JSONArray.fromObject(posted.getValue().getAttachments()).size());
+    }
+
+    @Test
+    public void digestIsSentWhenWindowCloses() {
+        StandardSlackService service = mock(StandardSlackService.class);
+        when(service.getDigestKey()).thenReturn("digestIsSentWhenWindowCloses");
+        when(service.publish(any(SlackPayload.class), anyString())).thenReturn(true);
+
+        SlackDigest.add(service, "good", attachments("one"), 1, 20);
+
+        verify(service, timeout(5000)).publish(any(SlackPayload.class), anyString());
+    }
+
+    @Test
+    public void otherServicesAreNotBatched() {
+        assertFalse(SlackDigest.add(mock(SlackService.class), "good", attachments("one"), 30, 20));
+    }
+
+    @Test
+    public void digestTakesMostSevereColor() {
+        assertEquals("good", SlackDigest.combineColors(null, "good"));
+        assertEquals("warning", SlackDigest.combineColors("good", "warning"));
+        assertEquals("danger", SlackDigest.combineColors("warning", "danger"));
+        assertEquals("danger", SlackDigest.combineColors("danger", "good"));
+    }
+
+    private static SlackPayload attachments(String message) {
+        return SlackPayload.forMessage(message, "good");
+    }
+}
@@ -0,0 +1,215 @@
+package jenkins.plugins.slack;
+
+import net.sf.json.JSONArray;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.mockito.InOrder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SlackNotificationQueueTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void queuedMessagesAreDeliveredInOrder() {
+        SlackService slackService = mock(SlackService.class);
+        when(slackService.publish("status", "good")).thenReturn(true);
+        when(slackService.publish("commits", "good")).thenReturn(true);
+
+        SlackNotificationQueue.get().submit(new SlackDelivery(slackService, "good", "status", "commits"));
+
+        verify(slackService, timeout(5000)).publish("commits", "good");
+        InOrder inOrder = inOrder(slackService);
+        inOrder.verify(slackService).publish("status", "good");
+        inOrder.verify(slackService).publish("commits", "good");
+    }
+
+    @Test
+    public void overflowPolicyDefaultsToDropOldest() {
+        assertEquals(SlackNotificationQueue.OverflowPolicy.DROP_OLDEST,
+                SlackNotificationQueue.OverflowPolicy.forName("unknown"));
+        assertEquals(SlackNotificationQueue.OverflowPolicy.SPILL_TO_DISK,
+                SlackNotificationQueue.OverflowPolicy.forName("SPILL_TO_DISK"));
+    }
+
+    @Test
+    public void dropOldestReplacesTheOldestQueuedNotification() throws Exception {
+        SlackNotificationQueue queue = new SlackNotificationQueue(1, SlackNotificationQueue.OverflowPolicy.DROP_OLDEST, 1);
+        BlockingSlackService slack = new BlockingSlackService();
+        queue.submit(new SlackDelivery(slack, "good", "blocker"));
+        slack.awaitStarted();
+
+        queue.submit(new SlackDelivery(slack, "good", "oldest"));
+        queue.submit(new SlackDelivery(slack, "good", "newest"));
+        slack.release();
+
+        slack.awaitPublished("newest");
+        assertEquals(Arrays.asList("blocker", "newest"), slack.getPublished());
+    }
+
+    @Test
+    public void blockWaitsForRoomInTheQueue() throws Exception {
+        final SlackNotificationQueue queue = new SlackNotificationQueue(1, SlackNotificationQueue.OverflowPolicy.BLOCK, 1);
+        final BlockingSlackService slack = new BlockingSlackService();
+        queue.submit(new SlackDelivery(slack, "good", "blocker"));
+        slack.awaitStarted();
+        queue.submit(new SlackDelivery(slack, "good", "queued"));
+
+        Thread build = new Thread() {
+            @Override
+            public void run() {
+                queue.submit(new SlackDelivery(slack, "good", "blocked"));
+            }
+        };
+        build.start();
+        build.join(500);
+        assertTrue(build.isAlive());
+
+        slack.release();
+        build.join(5000);
+        assertFalse(build.isAlive());
+        slack.awaitPublished("blocked");
+        assertEquals(Arrays.asList("blocker", "queued", "blocked"), slack.getPublished());
+    }
+
+    @Test
+    public void blockedNotificationMovesToTheReconfiguredExecutor() throws Exception {
+        final SlackNotificationQueue queue = new SlackNotificationQueue(1, SlackNotificationQueue.OverflowPolicy.BLOCK, 1);
+        BlockingSlackService slack = new BlockingSlackService();
+        queue.submit(new SlackDelivery(slack, "good", "blocker"));
+        slack.awaitStarted();
+        queue.submit(new SlackDelivery(slack, "good", "queued"));
+
+        final SlackService other = mock(SlackService.class);
+        when(other.publish("blocked", "good")).thenReturn(true);
+        Thread build = new Thread() {
+            @Override
+            public void run() {
+                queue.submit(new SlackDelivery(other, "good", "blocked"));
+            }
+        };
+        build.start();
+        build.join(500);
+        assertTrue(build.isAlive());
+
+        queue.configure(2, SlackNotificationQueue.OverflowPolicy.BLOCK, 1);
+        build.join(5000);
+        assertFalse(build.isAlive());
+        verify(other, timeout(5000)).publish("blocked", "good");
+
+        slack.release();
+        slack.awaitPublished("queued");
+    }
+
+    @Test
+    public void spilledNotificationIsRestoredWithoutItsPlainToken() throws Exception {
+        File spill = new File(j.jenkins.getRootDir(), "slack-queue-spill");
+        SlackNotificationQueue queue = new SlackNotificationQueue(1, SlackNotificationQueue.OverflowPolicy.SPILL_TO_DISK, 1);
+        BlockingSlackService slack = new BlockingSlackService();
+        queue.submit(new SlackDelivery(slack, "good", "blocker"));
+        slack.awaitStarted();
+        queue.submit(new SlackDelivery(slack, "good", "queued"));
+
+        queue.submit(new SlackDelivery(new RecordingSlackService("plain-secret-token"), "good", "spilled"));
+
+        File[] spilled = spill.listFiles();
+        assertEquals(1, spilled.length);
+        assertFalse(FileUtils.readFileToString(spilled[0]).contains("plain-secret-token"));
+
+        slack.release();
+        assertTrue(RecordingSlackService.RESTORED.await(10, TimeUnit.SECONDS));
+        assertEquals(0, spill.list().length);
+    }
+
+    /**
+     * Holds every delivery until released, so the queue can be filled up.
+     */
+    private static class BlockingSlackService implements SlackService {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+        private final List<String> published = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public boolean publish(String message) {
+            return publish(message, "warning");
+        }
+
+        @Override
+        public boolean publish(String message, String color) {
+            started.countDown();
+            try {
+                released.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                return false;
+            }
+            synchronized (published) {
+                published.add(message);
+                published.notifyAll();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean publish(JSONArray attachments, String color) {
+            return publish(attachments.toString(), color);
+        }
+
+        void awaitStarted() throws InterruptedException {
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+        }
+
+        void release() {
+            released.countDown();
+        }
+
+        void awaitPublished(String message) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10000;
+            synchronized (published) {
+                while (!published.contains(message) && System.currentTimeMillis() < deadline) {
+                    published.wait(Math.max(1, deadline - System.currentTimeMillis()));
+                }
+            }
+            assertTrue(published.contains(message));
+        }
+
+        List<String> getPublished() {
+            return new ArrayList<String>(published);
+        }
+    }
+
+    /**
+     * Persistable service that signals when a restored delivery reaches it.
+     */
+    private static class RecordingSlackService extends StandardSlackService {
+        static final CountDownLatch RESTORED = new CountDownLatch(1);
+
+        RecordingSlackService(String token) {
+            super("", "domain", token, null, false, "#room1");
+        }
+
+        @Override
+        public boolean publish(String message, String color) {
+            RESTORED.countDown();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package jenkins.plugins.slack;
+
+import hudson.model.FreeStyleProject;
+import hudson.util.DescribableList;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class SlackNotifierIndexTest {
+
+    @Before
+    public void setUp() {
+        SlackNotifierIndex.clear();
+    }
+
+    @Test
+    public void publishersAreScannedOnce() {
+        SlackNotifier notifier = mock(SlackNotifier.class);
+        DescribableList publishers = mock(DescribableList.class);
+        when(publishers.get(SlackNotifier.class)).thenReturn(notifier);
+        FreeStyleProject project = project(publishers);
+
+        assertSame(notifier, SlackNotifierIndex.get(project));
+        assertSame(notifier, SlackNotifierIndex.get(project));
+        verify(publishers, times(1)).get(SlackNotifier.class);
+    }
+
+    @Test
+    public void projectsWithoutNotifierAreRemembered() {
+        DescribableList publishers = mock(DescribableList.class);
+        FreeStyleProject project = project(publishers);
+
+        assertNull(SlackNotifierIndex.get(project));
+        assertNull(SlackNotifierIndex.get(project));
+        verify(publishers, times(1)).get(SlackNotifier.class);
+    }
+
+    @Test
+    public void updatedProjectIsScannedAgain() {
+        SlackNotifier notifier = mock(SlackNotifier.class);
+        DescribableList publishers = mock(DescribableList.class);
+        FreeStyleProject project = project(publishers);
+        assertNull(SlackNotifierIndex.get(project));
+
+        when(publishers.get(SlackNotifier.class)).thenReturn(notifier);
+        new SlackNotifierIndex.ItemInvalidator().onUpdated(project);
+
+        assertSame(notifier, SlackNotifierIndex.get(project));
+    }
+
+    private static FreeStyleProject project(DescribableList publishers) {
+        FreeStyleProject project = mock(FreeStyleProject.class);
+        when(project.getPublishersList()).thenReturn(publishers);
+        return project;
+    }
+}
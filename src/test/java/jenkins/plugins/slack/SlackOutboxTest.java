@@ -0,0 +1,111 @@
+package jenkins.plugins.slack;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SlackOutboxTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private SlackOutbox.Entry entry(String room) {
+        return new SlackOutbox.Entry("", "domain", null, "credentialId", false, room, "[{\"text\":\"message\"}]", "good");
+    }
+
+    @Test
+    public void unacknowledgedPostsSurviveARestart() throws IOException {
+        File dir = folder.newFolder("slack-outbox");
+        SlackOutbox outbox = new SlackOutbox(dir);
+        String delivered = outbox.append(entry("#room1"));
+        outbox.append(entry("#room2"));
+        outbox.ack(delivered);
+        outbox.close();
+
+        SlackOutbox reopened = new SlackOutbox(dir);
+        assertEquals(1, reopened.size());
+        reopened.close();
+    }
+
+    @Test
+    public void threadRepliesKeepTheirParentMessage() {
+        SlackOutbox.Entry reply = SlackOutbox.Entry.fromJSON(entry("#room1").inThread("C123", "1500000000.000100").toJSON());
+        assertEquals("C123", reply.threadChannel);
+        assertEquals("1500000000.000100", reply.threadTs);
+    }
+
+    @Test
+    public void parentKeepsTheRepliesForItsThread() {
+        SlackOutbox.Entry parent = SlackOutbox.Entry.fromJSON(entry("#room1").withReplies("[{\"text\":\"details\"}]").toJSON());
+        assertEquals("[{\"text\":\"details\"}]", parent.replies);
+        assertNull(SlackOutbox.Entry.fromJSON(entry("#room1").toJSON()).replies);
+    }
+
+    @Test
+    public void olderSegmentsAreDeletedOncePendingPostsAreCopied() throws IOException {
+        File dir = folder.newFolder("slack-outbox");
+        SlackOutbox outbox = new SlackOutbox(dir);
+        outbox.append(entry("#room1"));
+        outbox.close();
+
+        SlackOutbox reopened = new SlackOutbox(dir);
+        assertEquals(1, dir.list().length);
+        assertEquals(1, reopened.size());
+        reopened.ack(reopened.pendingIds().iterator().next());
+        assertEquals(0, reopened.size());
+        reopened.close();
+    }
+
+    @Test
+    public void postThatNeverSucceedsDoesNotKeepSegmentsAlive() throws IOException {
+        File dir = folder.newFolder("slack-outbox");
+        SlackOutbox outbox = new SlackOutbox(dir, 512);
+        String stuck = outbox.append(entry("#deleted-channel"));
+        for (int i = 0; i < 200; i++) {
+            outbox.ack(outbox.append(entry("#room1")));
+            assertTrue(dir.list().length <= 1);
+        }
+        assertEquals(1, outbox.size());
+        outbox.close();
+
+        SlackOutbox reopened = new SlackOutbox(dir, 512);
+        assertEquals(stuck, reopened.pendingIds().iterator().next());
+        reopened.close();
+    }
+
+    @Test
+    public void postsOlderThanTheMaximumAgeAreGivenUp() throws IOException {
+        SlackOutbox outbox = new SlackOutbox(folder.newFolder("slack-outbox"));
+        String id = outbox.append(entry("#room1"));
+        outbox.park(id);
+
+        outbox.redeliverParked(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(SlackOutbox.MAX_AGE_HOURS) + 1);
+        assertEquals(0, outbox.size());
+        outbox.close();
+    }
+
+    @Test
+    public void postsRedeliveredTooOftenAreGivenUp() throws IOException {
+        File dir = folder.newFolder("slack-outbox");
+        SlackOutbox.Entry entry = entry("#room1");
+        entry.attempts = SlackOutbox.MAX_ATTEMPTS;
+        SlackOutbox outbox = new SlackOutbox(dir);
+        outbox.park(outbox.append(entry));
+
+        outbox.redeliverParked();
+        assertEquals(0, outbox.size());
+        outbox.close();
+
+        SlackOutbox reopened = new SlackOutbox(dir);
+        assertEquals(0, reopened.size());
+        reopened.close();
+    }
+}
@@ -0,0 +1,86 @@
+package jenkins.plugins.slack;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.apache.http.HttpEntity;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SlackPayloadTest {
+
+    @Test
+    public void messageIsAMarkdownAttachment() {
+        String message = "*job* - #1 \"Success\" after 1 sec (<http://jenkins/job/1|Open>)\n\tünïcode";
+
+        JSONArray attachments = JSONArray.fromObject(SlackPayload.forMessage(message, "good").getAttachments());
+
+        assertEquals(1, attachments.size());
+        JSONObject attachment = attachments.getJSONObject(0);
+        assertEquals(message, attachment.getString("fallback"));
+        assertEquals("good", attachment.getString("color"));
+        assertEquals(message, attachment.getJSONArray("fields").getJSONObject(0).getString("value"));
+        assertTrue(attachment.getJSONArray("mrkdwn_in").contains("fields"));
+    }
+
+    @Test
+    public void payloadsAreJoinedIntoOnePost() {
+        SlackPayload joined = SlackPayload.concat(Arrays.asList(
+                SlackPayload.forMessages("good", "status", "commits"),
+                new SlackPayload("[]"),
+                new SlackPayload("[{\"fallback\":\"failed\",\"color\":\"danger\"}]")));
+
+        JSONArray attachments = JSONArray.fromObject(joined.getAttachments());
+        assertEquals(3, joined.size());
+        assertEquals(3, attachments.size());
+        assertEquals("commits", attachments.getJSONObject(1).getString("fallback"));
+        assertEquals("danger", attachments.getJSONObject(2).getString("color"));
+    }
+
+    @Test
+    public void webhookBodyCarriesChannelAndAttachments() throws Exception {
+        SlackPayload payload = SlackPayload.forMessage("hello & goodbye", "danger");
+
+        List<NameValuePair> form = URLEncodedUtils.parse(EntityUtils.toString(payload.toWebhookEntity("#room\"1")),
+                Charset.forName("UTF-8"));
+
+        assertEquals(1, form.size());
+        assertEquals("payload", form.get(0).getName());
+        JSONObject json = JSONObject.fromObject(form.get(0).getValue());
+        assertEquals("#room\"1", json.getString("channel"));
+        assertEquals("1", json.getString("link_names"));
+        assertEquals("hello & goodbye", json.getJSONArray("attachments").getJSONObject(0).getString("fallback"));
+    }
+
+    @Test
+    public void chatPostMessageBodyIsJson() throws Exception {
+        SlackPayload payload = SlackPayload.forMessage("hello", "good");
+
+        HttpEntity entity = payload.toChatPostMessageEntity("#room");
+
+        assertTrue(entity.getContentType().getValue().startsWith("application/json"));
+        JSONObject json = JSONObject.fromObject(EntityUtils.toString(entity));
+        assertEquals("#room", json.getString("channel"));
+        assertTrue(json.getBoolean("as_user"));
+        assertEquals("hello", json.getJSONArray("attachments").getJSONObject(0).getString("fallback"));
+    }
+
+    @Test
+    public void threadReplyNamesParentMessage() throws Exception {
+        SlackPayload payload = SlackPayload.forMessage("details", "danger");
+
+        JSONObject json = JSONObject.fromObject(EntityUtils.toString(
+                payload.toChatPostMessageEntity("C024BE91L", "1405894322.002768")));
+
+        assertEquals("C024BE91L", json.getString("channel"));
+        assertEquals("1405894322.002768", json.getString("thread_ts"));
+    }
+}
@@ -0,0 +1,41 @@
+package jenkins.plugins.slack;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SlackRateLimiterTest {
+
+    @Test
+    public void burstIsAllowedWithoutWaiting() throws InterruptedException {
+        SlackRateLimiter limiter = new SlackRateLimiter(1, 3);
+        assertEquals(0, limiter.acquire("domain|#room1"));
+        assertEquals(0, limiter.acquire("domain|#room1"));
+        assertEquals(0, limiter.acquire("domain|#room1"));
+    }
+
+    @Test
+    public void postsBeyondTheBurstAreSpreadOut() throws InterruptedException {
+        SlackRateLimiter limiter = new SlackRateLimiter(20, 1);
+        assertEquals(0, limiter.acquire("domain|#room1"));
+        long waited = limiter.acquire("domain|#room1");
+        assertTrue("waited " + waited, waited > 0 && waited <= 50);
+    }
+
+    @Test
+    public void reservingASlotDoesNotWait() {
+        SlackRateLimiter limiter = new SlackRateLimiter(1, 1);
+        assertEquals(0, limiter.reserve("domain|#room1"));
+        long wait = limiter.reserve("domain|#room1");
+        assertTrue("wait " + wait, wait > 0 && wait <= 1000);
+    }
+
+    @Test
+    public void channelsAreLimitedIndependently() throws InterruptedException {
+        SlackRateLimiter limiter = new SlackRateLimiter(0.001, 1);
+        assertEquals(0, limiter.acquire("domain|#room1"));
+        assertEquals(0, limiter.acquire("domain|#room2"));
+        assertEquals(0, limiter.acquire("other|#room1"));
+    }
+}
@@ -0,0 +1,18 @@
+package jenkins.plugins.slack;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SlackStartMessageActionTest {
+
+    @Test
+    public void resultIsPublishedIntoTheStartMessageOnce() {
+        SlackStartMessageAction startMessage = new SlackStartMessageAction();
+        startMessage.posted("#room1", "C123", "1500000000.000100");
+
+        assertTrue(startMessage.markResultPublished());
+        assertFalse(startMessage.markResultPublished());
+    }
+}
@@ -0,0 +1,54 @@
+package jenkins.plugins.slack;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SlackTestFingerprintActionTest {
+
+    @Test
+    public void hashesSurviveEncoding() {
+        long[] hashes = {Long.MIN_VALUE, -1, 0, 42, Long.MAX_VALUE};
+        assertArrayEquals(hashes, new SlackTestFingerprintAction(5, hashes).getHashes());
+    }
+
+    @Test
+    public void sameFailuresAreNoRegression() {
+        SlackTestFingerprintAction previous = fingerprint("a.Test.one", "a.Test.two");
+        SlackTestFingerprintAction current = fingerprint("a.Test.one", "a.Test.two");
+        assertFalse(current.isRegressionFrom(previous));
+    }
+
+    @Test
+    public void moreFailuresAreARegression() {
+        SlackTestFingerprintAction previous = fingerprint("a.Test.one");
+        SlackTestFingerprintAction current = fingerprint("a.Test.one", "a.Test.two");
+        assertTrue(current.isRegressionFrom(previous));
+    }
+
+    @Test
+    public void differentFailuresAreARegression() {
+        SlackTestFingerprintAction previous = fingerprint("a.Test.one");
+        SlackTestFingerprintAction current = fingerprint("a.Test.two");
+        assertTrue(current.isRegressionFrom(previous));
+    }
+
+    @Test
+    public void hashDependsOnEveryCharacter() {
+        assertTrue(SlackTestFingerprintAction.hash("a.Test.one") != SlackTestFingerprintAction.hash("a.Test.onf"));
+        assertTrue(SlackTestFingerprintAction.hash("\u0100") != SlackTestFingerprintAction.hash("\u0001"));
+    }
+
+    private static SlackTestFingerprintAction fingerprint(String... ids) {
+        long[] hashes = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            hashes[i] = SlackTestFingerprintAction.hash(ids[i]);
+        }
+        Arrays.sort(hashes);
+        return new SlackTestFingerprintAction(ids.length, hashes);
+    }
+}
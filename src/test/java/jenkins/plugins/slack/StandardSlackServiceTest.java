@@ -1,13 +1,46 @@
 package jenkins.plugins.slack;
 
+import com.google.common.util.concurrent.MoreExecutors;
 import org.apache.http.HttpStatus;
+import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.AdditionalMatchers.and;
+import static org.mockito.AdditionalMatchers.gt;
+import static org.mockito.AdditionalMatchers.leq;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class StandardSlackServiceTest {
+
+    private static final long NOW = 1000000L;
+
+    private ScheduledExecutorService scheduler;
+    private ManualClock clock;
+
+    @Before
+    public void setUp() {
+        SlackCircuitBreaker.reset();
+        SlackRateLimiter.DEFAULT.reset();
+        scheduler = mock(ScheduledExecutorService.class);
+        clock = new ManualClock();
+    }
+
     /**
      * Publish should generally not rethrow exceptions, or it will cause a build job to fail at end.
      */
@@ -109,4 +142,146 @@ public class StandardSlackServiceTest {
         service.setHttpClient(httpClientStub);
         assertTrue(service.publish("message"));
     }
+
+    @Test
+    public void serverErrorIsRetriedInTheBackground() {
+        StandardSlackServiceStub service = deterministic(new RetryPolicy(3, 10, 10));
+        CloseableHttpClientStub httpClientStub = new CloseableHttpClientStub();
+        httpClientStub.setHttpStatus(HttpStatus.SC_SERVICE_UNAVAILABLE);
+        service.setHttpClient(httpClientStub);
+
+        assertFalse(service.publish("message"));
+        assertEquals(1, httpClientStub.getNumberOfCallsToExecuteMethod());
+
+        scheduledRetry(1).run();
+        assertEquals(2, httpClientStub.getNumberOfCallsToExecuteMethod());
+
+        scheduledRetry(2).run();
+        assertEquals(3, httpClientStub.getNumberOfCallsToExecuteMethod());
+        // the third attempt was the last one
+        verify(scheduler, times(2)).schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void clientErrorIsNotRetried() {
+        StandardSlackServiceStub service = deterministic(new RetryPolicy(3, 10, 10));
+        CloseableHttpClientStub httpClientStub = new CloseableHttpClientStub();
+        httpClientStub.setHttpStatus(HttpStatus.SC_NOT_FOUND);
+        service.setHttpClient(httpClientStub);
+
+        assertFalse(service.publish("message"));
+        assertEquals(1, httpClientStub.getNumberOfCallsToExecuteMethod());
+        verify(scheduler, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    public void openCircuitShortCircuitsPostsUntilTheProbe() {
+        StandardSlackServiceStub service = deterministic(new RetryPolicy(2, 10, 10));
+        CloseableHttpClientStub httpClientStub = new CloseableHttpClientStub();
+        httpClientStub.setHttpStatus(HttpStatus.SC_OK);
+        service.setHttpClient(httpClientStub);
+        for (int i = 0; i < SlackCircuitBreaker.FAILURE_THRESHOLD; i++) {
+            service.getCircuitBreaker().recordFailure(NOW);
+        }
+
+        assertFalse(service.publish("message"));
+        assertEquals(0, httpClientStub.getNumberOfCallsToExecuteMethod());
+        // the retry waits exactly until the breaker lets a probe through
+        verify(scheduler).schedule(any(Runnable.class), eq(SlackCircuitBreaker.OPEN_MILLIS), eq(TimeUnit.MILLISECONDS));
+
+        clock.now += SlackCircuitBreaker.OPEN_MILLIS;
+        scheduledRetry(1).run();
+        assertEquals(1, httpClientStub.getNumberOfCallsToExecuteMethod());
+        assertEquals(SlackCircuitBreaker.State.CLOSED, service.getCircuitBreaker().getState());
+    }
+
+    @Test
+    public void publishAndWaitReportsTheOutcomeOfRetries() {
+        StandardSlackServiceStub service = deterministic(new RetryPolicy(3, 10, 10));
+        final CloseableHttpClientStub httpClientStub = new CloseableHttpClientStub();
+        httpClientStub.setHttpStatus(HttpStatus.SC_SERVICE_UNAVAILABLE);
+        service.setHttpClient(httpClientStub);
+        when(scheduler.schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS))).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                // Slack is back by the time the retry runs
+                httpClientStub.setHttpStatus(HttpStatus.SC_OK);
+                ((Runnable) invocation.getArguments()[0]).run();
+                return null;
+            }
+        });
+
+        assertTrue(service.publishAndWait("message", "good"));
+        assertEquals(2, httpClientStub.getNumberOfCallsToExecuteMethod());
+    }
+
+    @Test
+    public void publishAndWaitReportsPostsThatWereGivenUp() {
+        StandardSlackServiceStub service = deterministic(new RetryPolicy(1, 10, 10));
+        CloseableHttpClientStub httpClientStub = new CloseableHttpClientStub();
+        httpClientStub.setHttpStatus(HttpStatus.SC_SERVICE_UNAVAILABLE);
+        service.setHttpClient(httpClientStub);
+
+        assertFalse(service.publishAndWait("message", "good"));
+        assertEquals(1, httpClientStub.getNumberOfCallsToExecuteMethod());
+    }
+
+    @Test
+    public void rateLimitedPostIsScheduledForItsSlot() {
+        StandardSlackServiceStub service = deterministic(new RetryPolicy(3, 10, 10));
+        service.setRateLimiter(new SlackRateLimiter(1, 1));
+        CloseableHttpClientStub httpClientStub = new CloseableHttpClientStub();
+        httpClientStub.setHttpStatus(HttpStatus.SC_OK);
+        service.setHttpClient(httpClientStub);
+
+        assertTrue(service.publish("first"));
+        assertFalse(service.publish("second"));
+        assertEquals(1, httpClientStub.getNumberOfCallsToExecuteMethod());
+        verify(scheduler).schedule(any(Runnable.class), and(gt(0L), leq(1000L)), eq(TimeUnit.MILLISECONDS));
+
+        // the slot was reserved already, the post goes out without asking the limiter again
+        scheduledRetry(1).run();
+        assertEquals(2, httpClientStub.getNumberOfCallsToExecuteMethod());
+        assertEquals(SlackCircuitBreaker.State.CLOSED, service.getCircuitBreaker().getState());
+    }
+
+    @Test
+    public void chatUpdateFailuresDoNotOpenThePostMessageCircuit() {
+        StandardSlackService service = new StandardSlackService("", "domain", "token", null, true, "#room1");
+        for (int i = 0; i < SlackCircuitBreaker.FAILURE_THRESHOLD; i++) {
+            service.getCircuitBreaker(StandardSlackService.CHAT_UPDATE_URL).recordFailure(NOW);
+        }
+        assertEquals(SlackCircuitBreaker.State.OPEN,
+                service.getCircuitBreaker(StandardSlackService.CHAT_UPDATE_URL).getState());
+        assertEquals(SlackCircuitBreaker.State.CLOSED,
+                service.getCircuitBreaker(StandardSlackService.CHAT_POST_MESSAGE_URL).getState());
+    }
+
+    /**
+     * A service whose retries only run when the test runs them, on the test's thread and clock.
+     */
+    private StandardSlackServiceStub deterministic(RetryPolicy retryPolicy) {
+        StandardSlackServiceStub service = new StandardSlackServiceStub("", "domain", "token", null, false, "#room1");
+        service.setRetryPolicy(retryPolicy);
+        service.setRateLimiter(new SlackRateLimiter(0, 1));
+        service.setClock(clock);
+        service.setScheduler(scheduler);
+        service.setFanOut(MoreExecutors.sameThreadExecutor());
+        return service;
+    }
+
+    private Runnable scheduledRetry(int retries) {
+        ArgumentCaptor<Runnable> retry = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler, times(retries)).schedule(retry.capture(), anyLong(), eq(TimeUnit.MILLISECONDS));
+        return retry.getValue();
+    }
+
+    private static class ManualClock implements StandardSlackService.Clock {
+        long now = NOW;
+
+        @Override
+        public long currentTimeMillis() {
+            return now;
+        }
+    }
 }
@@ -0,0 +1,80 @@
+package jenkins.plugins.slack.webhook;
+
+import jenkins.plugins.slack.SlackMetrics;
+import jenkins.plugins.slack.webhook.exception.RouteNotFoundException;
+import jenkins.plugins.slack.webhook.model.SlackPostData;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class CommandRouterTest {
+
+    private CommandRouter<String> router;
+
+    @Before
+    public void setUp() {
+        router = new CommandRouter<String>()
+            .addRoute("^list projects", "list projects", "", new Echo("projects"))
+            .addRoute("^list (.+)", "list <what>", "", new Echo("list"))
+            .addRoute("^run (.+)", "run <project_name>", "", new Echo("run"))
+            .addRoute("^(.+) please", "<anything> please", "", new Echo("polite"));
+    }
+
+    @Test
+    public void routesByKeyword() throws Exception {
+        assertEquals("run:my project", router.route("run my project", new SlackPostData()));
+    }
+
+    @Test
+    public void longestKeywordMatchWins() throws Exception {
+        assertEquals("projects:list projects", router.route("list projects", new SlackPostData()));
+        assertEquals("list:nodes", router.route("list nodes", new SlackPostData()));
+    }
+
+    @Test
+    public void routesWithoutKeywordAreTriedLast() throws Exception {
+        assertEquals("run:please", router.route("run please", new SlackPostData()));
+        assertEquals("polite:deploy", router.route("deploy please", new SlackPostData()));
+    }
+
+    @Test
+    public void commandTimeIsRecorded() throws Exception {
+        SlackMetrics.Stat before = SlackMetrics.snapshot().get("webhook.list-projects.millis");
+        long count = before != null ? before.getCount() : 0;
+
+        router.route("list projects", new SlackPostData());
+
+        assertEquals(count + 1, SlackMetrics.snapshot().get("webhook.list-projects.millis").getCount());
+    }
+
+    @Test
+    public void unknownCommand() throws Exception {
+        try {
+            router.route("dance", new SlackPostData());
+            fail();
+        } catch (RouteNotFoundException ex) {
+            assertEquals("dance", ex.getRouteCommand());
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void routesAreOnlyAddedThroughTheRouter() {
+        assertEquals(4, router.getRoutes().size());
+        router.getRoutes().clear();
+    }
+
+    private static class Echo implements RouterCommand<String> {
+        private final String name;
+
+        Echo(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String execute(SlackPostData data, String... args) {
+            return name + ":" + args[0];
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package jenkins.plugins.slack.webhook;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.Test;
+
+import java.util.regex.PatternSyntaxException;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ListProjectsCommandTest {
+
+    private static final long NO_DEADLINE = System.nanoTime() + Long.MAX_VALUE / 2;
+
+    @Test
+    public void matchesGlobsAndRegexes() {
+        ProjectStatusIndex.Status job = job("api-server");
+
+        assertTrue(ListProjectsCommand.Filter.parse("api-*").matches(job, NO_DEADLINE));
+        assertTrue(ListProjectsCommand.Filter.parse("server").matches(job, NO_DEADLINE));
+        assertTrue(ListProjectsCommand.Filter.parse("/^api-(server|client)$/").matches(job, NO_DEADLINE));
+        assertFalse(ListProjectsCommand.Filter.parse("web-*").matches(job, NO_DEADLINE));
+    }
+
+    @Test(expected = PatternSyntaxException.class)
+    public void longPatternIsRejected() {
+        ListProjectsCommand.Filter.parse(StringUtils.repeat("a", ListProjectsCommand.MAX_PATTERN_LENGTH + 1));
+    }
+
+    @Test
+    public void backtrackingRegexIsStoppedAtTheDeadline() {
+        ListProjectsCommand.Filter filter = ListProjectsCommand.Filter.parse("/^(a+)+$/");
+        ProjectStatusIndex.Status job = job(StringUtils.repeat("a", 40) + "!");
+
+        long start = System.nanoTime();
+        try {
+            filter.matches(job, start + 100000000L);
+            fail();
+        } catch (ListProjectsCommand.MatchTimeoutException expected) {
+            assertTrue(System.nanoTime() - start < 5000000000L);
+        }
+    }
+
+    private static ProjectStatusIndex.Status job(String name) {
+        return new ProjectStatusIndex.Status(name, true, 0, null, false);
+    }
+}
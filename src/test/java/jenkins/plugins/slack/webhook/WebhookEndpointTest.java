@@ -153,6 +153,38 @@ public class WebhookEndpointTest {
         assertThat(getSlackMessage(response).getText(), is("*Projects:*\n>*"+LONG_PROJECT_NAME+"*\n>*Last Build:* #1\n>*Status:* SUCCESS\n\n\n"));
     }
 
+    @Test
+    public void testListProjectsAfterDelete() throws Exception {
+        setConfigSettings();
+        data.add(new NameValuePair("text", "jenkins list projects"));
+        FreeStyleProject project = jenkinsRule.createFreeStyleProject(LONG_PROJECT_NAME);
+        project.delete();
+
+        WebResponse response = makeRequest(data);
+        assertThat(getSlackMessage(response).getText(), is("*Projects:*\n>_No projects found_"));
+    }
+
+    @Test
+    public void testListProjectsMatchingPattern() throws Exception {
+        setConfigSettings();
+        jenkinsRule.createFreeStyleProject("alpha");
+        jenkinsRule.createFreeStyleProject("beta");
+
+        data.add(new NameValuePair("text", "jenkins list projects al*"));
+        WebResponse response = makeRequest(data);
+        assertThat(getSlackMessage(response).getText(), is("*Projects:*\n>*alpha*\n>*Last Build:* #TBD\n>*Status:* TBD\n\n\n"));
+    }
+
+    @Test
+    public void testListFailingProjects() throws Exception {
+        setConfigSettings();
+        jenkinsRule.createFreeStyleProject("alpha").scheduleBuild2(0).get();
+
+        data.add(new NameValuePair("text", "jenkins list projects failing"));
+        WebResponse response = makeRequest(data);
+        assertThat(getSlackMessage(response).getText(), is("*Projects:*\n>_No projects found_"));
+    }
+
     @Test
     public void testRunNonExistantProject() throws Exception {
         setConfigSettings();
@@ -54,7 +54,19 @@ public class MessageBuilderTest extends TestCase {
                 {"project", "#541 <a href=\"https://bitbucket.org/org/project/pull-request/125\">#125 Bug</a>",
                         "project - #541 <https://bitbucket.org/org/project/pull-request/125|#125 Bug> "},
                 {"project", "#541 <b>Bold Project</b>", "project - #541 &lt;b&gt;Bold Project&lt;/b&gt; "},
-                {"project", "#541 <a no-url>bob</a>", "project - #541 &lt;a no-url&gt;bob&lt;/a&gt; "}
+                {"project", "#541 <a no-url>bob</a>", "project - #541 &lt;a no-url&gt;bob&lt;/a&gt; "},
+                {"project", "#541 Bob's {0} build", "project - #541 Bob's {0} build "},
+                {"project", "#541 {unbalanced '{", "project - #541 {unbalanced '{ "},
+                {"project", "#541 <A HREF='https://example.org/{id}'>it's</A> & more",
+                        "project - #541 <https://example.org/{id}|it's> &amp; more "},
+                {"project", "#541 <a href=https://example.org/1>one</a><a href=\"https://example.org/2\">two</a>",
+                        "project - #541 <https://example.org/1|one><https://example.org/2|two> "},
+                {"a & b", "#1 x > y < z", "a &amp; b - #1 x &gt; y &lt; z "},
+                {"project", "#541 &amp; &lt;", "project - #541 &amp;amp; &amp;lt; "},
+                {"project", "#541 <a href=\"https://example.org\">unterminated",
+                        "project - #541 &lt;a href=\"https://example.org\"&gt;unterminated "},
+                {"project", "#541 <a href=\"https://example.org\">two\nlines</a>",
+                        "project - #541 &lt;a href=\"https://example.org\"&gt;two\nlines&lt;/a&gt; "}
         });
     }
 